@@ -0,0 +1,107 @@
+package org.dashevo.dashpay
+
+import org.dashevo.dashpay.callback.RegisterIdentityCallback
+import org.dashevo.dashpay.callback.RegisterNameCallback
+import org.dashevo.dashpay.callback.RegisterPreorderCallback
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+/**
+ * [CompletableFuture] facade over the register and monitor operations of a [BlockchainIdentity].
+ *
+ * Register operations run on [executor]. Monitor operations complete when the matching callback
+ * fires and fail with a [MonitorTimeoutException] when the retries run out, so they can be
+ * composed, joined or timed out like any other future. Cancelling a monitor future stops its
+ * retries before the next query.
+ *
+ * @property blockchainIdentity BlockchainIdentity
+ * @property executor Executor
+ */
+class AsyncBlockchainIdentity(val blockchainIdentity: BlockchainIdentity, val executor: Executor) {
+
+    fun registerIdentity(): CompletableFuture<Void> {
+        return CompletableFuture.runAsync(Runnable { blockchainIdentity.registerIdentity() }, executor)
+    }
+
+    fun registerPreorderedSaltedDomainHashesForUsernames(usernames: List<String>): CompletableFuture<Void> {
+        return CompletableFuture.runAsync(Runnable {
+            blockchainIdentity.registerPreorderedSaltedDomainHashesForUsernames(usernames)
+        }, executor)
+    }
+
+    fun registerUsernameDomainsForUsernames(usernames: List<String>): CompletableFuture<Void> {
+        return CompletableFuture.runAsync(Runnable {
+            blockchainIdentity.registerUsernameDomainsForUsernames(usernames)
+        }, executor)
+    }
+
+    /** Completes with the uniqueId of the identity once it is found on the network */
+    fun monitorForBlockchainIdentity(retryCount: Int, delayMillis: Long, retryDelayType: BlockchainIdentity.RetryDelayType): CompletableFuture<String> {
+        val future = CompletableFuture<String>()
+        runMonitor(future) {
+            blockchainIdentity.monitorForBlockchainIdentityWithRetryCount(retryCount, delayMillis, retryDelayType,
+                object : RegisterIdentityCallback {
+                    override fun onComplete(uniqueId: String) {
+                        future.complete(uniqueId)
+                    }
+
+                    override fun onTimeout() {
+                        future.completeExceptionally(MonitorTimeoutException(listOf(blockchainIdentity.uniqueIdString)))
+                    }
+                }, future::isCancelled)
+        }
+        return future
+    }
+
+    /** Completes with the usernames whose preorders were found on the network */
+    fun monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes: Map<String, ByteArray>, retryCount: Int, delayMillis: Long,
+                                                 retryDelayType: BlockchainIdentity.RetryDelayType): CompletableFuture<List<String>> {
+        val future = CompletableFuture<List<String>>()
+        runMonitor(future) {
+            blockchainIdentity.monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes, retryCount, delayMillis, retryDelayType,
+                object : RegisterPreorderCallback {
+                    override fun onComplete(names: List<String>) {
+                        future.complete(names)
+                    }
+
+                    override fun onTimeout(incompleteNames: List<String>) {
+                        future.completeExceptionally(MonitorTimeoutException(incompleteNames))
+                    }
+                }, future::isCancelled)
+        }
+        return future
+    }
+
+    /** Completes with the usernames whose domains were found on the network */
+    fun monitorForDPNSUsernames(usernames: List<String>, retryCount: Int, delayMillis: Long,
+                                retryDelayType: BlockchainIdentity.RetryDelayType): CompletableFuture<List<String>> {
+        val future = CompletableFuture<List<String>>()
+        runMonitor(future) {
+            blockchainIdentity.monitorForDPNSUsernames(usernames, retryCount, delayMillis, retryDelayType,
+                object : RegisterNameCallback {
+                    override fun onComplete(names: List<String>) {
+                        future.complete(names)
+                    }
+
+                    override fun onTimeout(incompleteNames: List<String>) {
+                        future.completeExceptionally(MonitorTimeoutException(incompleteNames))
+                    }
+                }, future::isCancelled)
+        }
+        return future
+    }
+
+    /** The first monitor attempt queries the network on the calling thread, so start it on [executor] */
+    private fun runMonitor(future: CompletableFuture<*>, monitor: () -> Unit) {
+        executor.execute {
+            if (future.isDone) {
+                return@execute
+            }
+            try {
+                monitor()
+            } catch (e: Exception) {
+                future.completeExceptionally(e)
+            }
+        }
+    }
+}
@@ -13,8 +13,13 @@ import org.bitcoinj.wallet.Wallet
 import org.dashevo.dashpay.callback.RegisterIdentityCallback
 import org.dashevo.dashpay.callback.RegisterNameCallback
 import org.dashevo.dashpay.callback.RegisterPreorderCallback
+import org.dashevo.dashpay.storage.IdentityJournal
+import org.dashevo.dashpay.storage.IdentityRecord
+import org.dashevo.platform.DocumentProjection
+import org.dashevo.platform.Identifier
+import org.dashevo.platform.Names
 import org.dashevo.platform.Platform
-import org.dashevo.dapiclient.model.DocumentQuery
+import org.dashevo.platform.RateLimiter
 import org.dashevo.dpp.document.Document
 import org.dashevo.dpp.document.DocumentsStateTransition
 import org.dashevo.dpp.identity.Identity
@@ -26,6 +31,7 @@ import org.dashevo.dpp.util.Cbor
 import org.dashevo.dpp.util.Entropy
 import org.slf4j.LoggerFactory
 import java.util.*
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.collections.ArrayList
 import kotlin.collections.HashMap
 import kotlin.collections.HashSet
@@ -36,9 +42,9 @@ class BlockchainIdentity {
     var platform: Platform
     var params: NetworkParameters
 
-    private constructor(params: NetworkParameters) {
+    private constructor(params: NetworkParameters, platform: Platform) {
         this.params = params
-        platform = Platform(params)
+        this.platform = platform
     }
 
     companion object {
@@ -46,6 +52,10 @@ class BlockchainIdentity {
         const val BLOCKCHAIN_USERNAME_STATUS = "BLOCKCHAIN_USERNAME_STATUS"
 
         private val log = LoggerFactory.getLogger(Peer::class.java)
+
+        /** the monitors only compare these fields, so the rest of each document is not decoded */
+        private val SALTED_DOMAIN_HASH = DocumentProjection("saltedDomainHash")
+        private val NORMALIZED_LABEL = DocumentProjection("normalizedLabel")
     }
 
     enum class RegistrationStatus {
@@ -80,15 +90,51 @@ class BlockchainIdentity {
         REVOKED
     }
 
-    lateinit var usernameStatuses: MutableMap<String, Any?>
+    /** Reports changes of the registration status, balance and usernames of this identity */
+    val events = IdentityEvents(this)
+
+    /** The usernames of this identity with their status and salt */
+    @Volatile
+    var usernameStore = UsernameStore()
+        private set(value) {
+            field.changeListener = null
+            value.changeListener = { events.usernameChanged(it) }
+            field = value
+            events.stateChanged()
+        }
+
+    init {
+        usernameStore.changeListener = { events.usernameChanged(it) }
+    }
+
+    /**
+     * A read-only snapshot of the usernames in the map format of [UsernameStore.toMap]. Later
+     * changes to [usernameStore] are not reflected, use the store to read or change usernames.
+     */
+    @Deprecated("read and change usernameStore instead", ReplaceWith("usernameStore.toMap()"))
+    val usernameStatuses: Map<String, Any?>
+        get() = Collections.unmodifiableMap(usernameStore.toMap())
 
-    /** This is the unique identifier representing the blockchain identity. It is derived from the credit funding transaction credit burn UTXO */
-    lateinit var uniqueId: Sha256Hash
+    /**
+     * This is the unique identifier representing the blockchain identity. It is derived from the
+     * credit funding transaction credit burn UTXO and keeps its base58 form once computed
+     */
+    lateinit var uniqueIdentifier: Identifier
+        private set
+    var uniqueId: Sha256Hash
+        get() = uniqueIdentifier.toSha256Hash()
+        set(value) {
+            uniqueIdentifier = Identifier.from(value)
+        }
     val uniqueIdString: String
-        get() = uniqueId.toStringBase58()
+        get() = uniqueIdentifier.toBase58()
+    /** false until [uniqueIdentifier] is set, while the identity is being constructed */
+    internal val hasUniqueIdentifier: Boolean
+        get() = this::uniqueIdentifier.isInitialized
     val uniqueIdData: ByteArray
-        get() = uniqueId.bytes
+        get() = uniqueIdentifier.getBytes()
 
+    @Volatile
     var identity: Identity? = null
 
     /** This is if the blockchain identity is present in wallets or not. If this is false then the blockchain identity is known for example from being a dashpay friend. */
@@ -111,13 +157,65 @@ class BlockchainIdentity {
 
     //var dashpayBioString: String
 
-    lateinit var registrationStatus: RegistrationStatus
+    private val registrationStatusReference = AtomicReference(RegistrationStatus.UNKNOWN)
+
+    var registrationStatus: RegistrationStatus
+        get() = registrationStatusReference.get()
+        set(value) {
+            if (registrationStatusReference.getAndSet(value) != value) {
+                events.stateChanged()
+            }
+        }
+
+    /**
+     * Sets the registration status to [update] only if it is [expect]
+     *
+     * @return true if the status was changed
+     */
+    fun compareAndSetRegistrationStatus(expect: RegistrationStatus, update: RegistrationStatus): Boolean {
+        if (registrationStatusReference.compareAndSet(expect, update)) {
+            events.stateChanged()
+            return true
+        }
+        return false
+    }
 
-    lateinit var usernameSalts: MutableMap<String, ByteArray>
+    /**
+     * Moves the registration status to REGISTERED from whatever it is now, without overwriting a
+     * change made by another thread between the read and the write
+     *
+     * @return false if the status already was REGISTERED
+     */
+    private fun markRegistered(): Boolean {
+        while (true) {
+            val current = registrationStatus
+            if (current == RegistrationStatus.REGISTERED) {
+                return false
+            }
+            if (compareAndSetRegistrationStatus(current, RegistrationStatus.REGISTERED)) {
+                return true
+            }
+        }
+    }
+
+    /**
+     * A read-only snapshot of the salts of the usernames. Later changes to [usernameStore] are not
+     * reflected, use the store to read or change salts.
+     */
+    @Deprecated("read and change usernameStore instead", ReplaceWith("usernameStore.salts()"))
+    val usernameSalts: Map<String, ByteArray>
+        get() = Collections.unmodifiableMap(usernameStore.salts())
 
     var registered: Boolean = false
 
+    @Volatile
     var creditBalance: Coin = Coin.ZERO
+        set(value) {
+            if (field != value) {
+                field = value
+                events.stateChanged()
+            }
+        }
 
     var activeKeyCount: Int = 0
 
@@ -131,25 +229,39 @@ class BlockchainIdentity {
     var currentMainKeyIndex: Int = 0
     var currentMainKeyType: IdentityPublicKey.TYPES = IdentityPublicKey.TYPES.ECDSA_SECP256K1
     lateinit var creditFundingTransaction: CreditFundingTransaction
-    lateinit var registrationFundingPrivateKey: ECKey
+    private val keyMaterialCache = KeyMaterialCache()
+
+    private var fundingPrivateKey: ECKey? = null
+
+    /** Setting another key drops the key material derived from the previous one */
+    var registrationFundingPrivateKey: ECKey
+        get() = fundingPrivateKey ?: throw UninitializedPropertyAccessException("registrationFundingPrivateKey has not been set")
+        set(value) {
+            fundingPrivateKey = value
+            keyMaterialCache.clear()
+        }
+    private val derivationPaths = Collections.synchronizedMap(EnumMap<IdentityPublicKey.TYPES, ImmutableList<ChildNumber>>(IdentityPublicKey.TYPES::class.java))
+    private val derivationPathFactory by lazy { DerivationPathFactory(wallet!!.params) }
 
 
 
 
-    constructor(uniqueId: Sha256Hash, params: NetworkParameters) : this(params) {
+    @JvmOverloads
+    constructor(uniqueId: Sha256Hash, params: NetworkParameters, platform: Platform = Platform(params)) : this(params, platform) {
         Preconditions.checkArgument(uniqueId != Sha256Hash.ZERO_HASH, "uniqueId must not be zero");
         this.uniqueId = uniqueId
         this.isLocal = false
         this.keysCreated = 0
         this.currentMainKeyIndex = 0
         this.currentMainKeyType = IdentityPublicKey.TYPES.ECDSA_SECP256K1
-        this.usernameStatuses = HashMap()
         this.keyInfo = HashMap()
         this.registrationStatus = RegistrationStatus.REGISTERED
         this.type = Identity.IdentityType.UNKNOWN //we don't yet know the type
     }
 
-    constructor(type: Identity.IdentityType, index: Int, wallet: Wallet): this(wallet.getParams()){
+    @JvmOverloads
+    constructor(type: Identity.IdentityType, index: Int, wallet: Wallet, platform: Platform = Platform(wallet.params)) :
+            this(wallet.getParams(), platform) {
         Preconditions.checkArgument(index != Int.MAX_VALUE && index != Int.MIN_VALUE, "index must be found");
 
         this.wallet = wallet
@@ -158,55 +270,87 @@ class BlockchainIdentity {
         this.currentMainKeyIndex = 0
         this.currentMainKeyType = IdentityPublicKey.TYPES.ECDSA_SECP256K1
         this.index = index;
-        this.usernameStatuses = HashMap()
         this.keyInfo = HashMap()
         this.registrationStatus = RegistrationStatus.UNKNOWN
-        this.usernameSalts = HashMap()
         this.type = type
     }
 
-    constructor(type: Identity.IdentityType, index: Int, lockedOutpoint: TransactionOutPoint, wallet: Wallet) :
-            this(type, index, wallet) {
+    @JvmOverloads
+    constructor(type: Identity.IdentityType, index: Int, lockedOutpoint: TransactionOutPoint, wallet: Wallet,
+                platform: Platform = Platform(wallet.params)) :
+            this(type, index, wallet, platform) {
         Preconditions.checkArgument(lockedOutpoint.hash != Sha256Hash.ZERO_HASH, "utxo must not be null");
         this.lockedOutpoint = lockedOutpoint;
         this.uniqueId = Sha256Hash.twiceOf(lockedOutpoint.bitcoinSerialize())
     }
 
-    constructor(type: Identity.IdentityType, transaction: CreditFundingTransaction, wallet: Wallet) :
-            this(type, transaction.usedDerivationPathIndex, transaction.lockedOutpoint, wallet) {
+    /** Creates the identity of [transaction] and looks up whether it is registered, using [platform] */
+    @JvmOverloads
+    constructor(type: Identity.IdentityType, transaction: CreditFundingTransaction, wallet: Wallet,
+                platform: Platform = Platform(wallet.params)) :
+            this(type, transaction, wallet, true, platform)
+
+    private constructor(type: Identity.IdentityType, transaction: CreditFundingTransaction, wallet: Wallet,
+                        lookupRegistration: Boolean, platform: Platform) :
+            this(type, transaction.usedDerivationPathIndex, transaction.lockedOutpoint, wallet, platform) {
         Preconditions.checkArgument(!transaction.creditBurnPublicKey.isPubKeyOnly)
         creditFundingTransaction = transaction
         registrationFundingPrivateKey = transaction.creditBurnPublicKey
 
         //see if the identity is registered.
-        try {
-            if (platform.identities.get(uniqueIdString) != null)
-                registrationStatus = RegistrationStatus.REGISTERED
-            else registrationStatus = RegistrationStatus.NOT_REGISTERED
-        } catch (x: Exception) {
-            //swallow and leave the status as unknown
+        if (lookupRegistration) {
+            try {
+                // not get, a cached "not found" of the last seconds would be taken as the answer
+                if (platform.identities.fetch(uniqueIdentifier) != null)
+                    registrationStatus = RegistrationStatus.REGISTERED
+                else registrationStatus = RegistrationStatus.NOT_REGISTERED
+            } catch (x: Exception) {
+                //swallow and leave the status as unknown
+            }
         }
     }
 
+    /**
+     * Restores a local identity from its saved state without contacting Platform, see
+     * [org.dashevo.dashpay.storage.IdentityLoader]
+     */
+    @JvmOverloads
+    constructor(transaction: CreditFundingTransaction, record: IdentityRecord, usernames: Collection<UsernameInfo>, wallet: Wallet,
+                platform: Platform = Platform(wallet.params)) :
+            this(record.type, transaction, wallet, false, platform) {
+        Preconditions.checkArgument(record.uniqueId == uniqueIdString, "the record is of another identity")
+        restore(record, usernames)
+    }
+
+    /** Restores an identity that is not in the wallet from its saved state without contacting Platform */
+    @JvmOverloads
+    constructor(record: IdentityRecord, usernames: Collection<UsernameInfo>, params: NetworkParameters,
+                platform: Platform = Platform(params)) :
+            this(Sha256Hash.wrap(Base58.decode(record.uniqueId)), params, platform) {
+        this.type = record.type
+        restore(record, usernames)
+    }
+
+    private fun restore(record: IdentityRecord, usernames: Collection<UsernameInfo>) {
+        registrationStatus = record.registrationStatus
+        creditBalance = Coin.valueOf(record.creditBalance)
+        identity = record.identityBytes?.let { platform.dpp.identity.createFromSerialized(it) }
+        usernameStore.putAll(usernames)
+    }
+
     constructor(type: Identity.IdentityType, transaction: CreditFundingTransaction, usernameStatus: MutableMap<String, Any>, wallet: Wallet) :
         this(type, transaction, wallet)
     {
-        if (getUsernames().isNotEmpty()) {
-            val usernameSalts = HashMap<String, ByteArray>()
-            for (username in usernameStatus.keys) {
-                val data = usernameStatus[username] as MutableMap<String, Any?>
-                var salt = data[BLOCKCHAIN_USERNAME_SALT]
-                if (salt != null) {
-                    usernameSalts[username] = salt as ByteArray
-                }
-            }
-            this.usernameStatuses = copyMap(usernameStatus)
-            this.usernameSalts = usernameSalts;
+        if (usernameStatus.isNotEmpty()) {
+            usernameStore = UsernameStore.fromMap(usernameStatus)
         }
     }
 
-    private fun copyMap(map: MutableMap<String, Any>): MutableMap<String, Any?> {
-        return Cbor.decode(Cbor.encode(map))
+    /** Restores an identity with the usernames of [usernames], which are shared until either store is changed */
+    constructor(type: Identity.IdentityType, transaction: CreditFundingTransaction, usernames: UsernameStore, wallet: Wallet) :
+        this(type, transaction, wallet)
+    {
+        usernameStore = usernames.copy()
     }
 
     constructor(type: Identity.IdentityType, index: Int, transaction: CreditFundingTransaction, usernameStatus: MutableMap<String, Any>, credits: Coin, registrationStatus: RegistrationStatus, wallet: Wallet):
@@ -551,15 +695,10 @@ class BlockchainIdentity {
         }
         signStateTransition(transition)
 
-        platform.client.applyStateTransition(transition)
+        platform.applyStateTransition(transition)
 
         for (string in usernames) {
-            var usernameStatusDictionary = usernameStatuses[string] as MutableMap<String, Any>
-            if (usernameStatusDictionary == null) {
-                usernameStatusDictionary = HashMap<String, Any>()
-            }
-            usernameStatusDictionary[BLOCKCHAIN_USERNAME_STATUS] = UsernameStatus.PREORDER_REGISTRATION_PENDING
-            usernameStatuses[string] = usernameStatusDictionary
+            usernameStore.setStatus(string, UsernameStatus.PREORDER_REGISTRATION_PENDING)
         }
         saveUsernames(usernames, UsernameStatus.PREORDER_REGISTRATION_PENDING)
     }
@@ -571,15 +710,10 @@ class BlockchainIdentity {
         }
         signStateTransition(transition!!)
 
-        platform.client.applyStateTransition(transition)
+        platform.applyStateTransition(transition)
 
         for (string in usernames) {
-            var usernameStatusDictionary = usernameStatuses[string] as MutableMap<String, Any>
-            if (usernameStatusDictionary == null) {
-                usernameStatusDictionary = HashMap<String, Any>()
-            }
-            usernameStatusDictionary[BLOCKCHAIN_USERNAME_STATUS] = UsernameStatus.REGISTRATION_PENDING
-            usernameStatuses[string] = usernameStatusDictionary
+            usernameStore.setStatus(string, UsernameStatus.REGISTRATION_PENDING)
         }
         saveUsernames(usernames, BlockchainIdentity.UsernameStatus.REGISTRATION_PENDING)
 
@@ -589,27 +723,27 @@ class BlockchainIdentity {
     // MARK: Username Helpers
 
     fun saltForUsername(username: String, saveSalt: Boolean): ByteArray {
-        var salt: ByteArray
-        if (statusOfUsername(username) == UsernameStatus.INITIAL || !(usernameSalts.containsKey(username))) {
-            salt = Entropy.generateBytes()
-            usernameSalts[username] = salt
-            if (saveSalt) {
-                saveUsername(username, statusOfUsername(username), salt, true)
-            }
-        } else {
-            salt = usernameSalts[username]!!
+        return saltForUsername(username, saveSalt, true)
+    }
+
+    private fun saltForUsername(username: String, saveSalt: Boolean, commitSave: Boolean): ByteArray {
+        var generated: ByteArray? = null
+        val salt = usernameStore.saltOrCreate(username) { Entropy.generateBytes().also { generated = it } }
+        if (saveSalt && salt === generated) {
+            saveUsername(username, statusOfUsername(username), salt, commitSave)
         }
-        return salt;
+        return salt
     }
 
     fun saltedDomainHashesForUsernames(usernames: List<String>): MutableMap<String, ByteArray> {
         val mSaltedDomainHashes = HashMap<String, ByteArray>()
         for (unregisteredUsername in usernames) {
-            val salt = saltForUsername(unregisteredUsername, true)
+            val salt = saltForUsername(unregisteredUsername, true, false)
             val saltedDomainHashData = platform.names.getSaltedDomainHashBytes(salt, unregisteredUsername)
             mSaltedDomainHashes[unregisteredUsername] = saltedDomainHashData
-            usernameSalts[unregisteredUsername] = salt //is this required?
         }
+        // the new salts are written with a single sync
+        journal?.commit()
         return mSaltedDomainHashes
     }
 
@@ -627,7 +761,7 @@ class BlockchainIdentity {
     fun domainDocumentsForUnregisteredUsernames(unregisteredUsernames: List<String>): List<Document> {
         val usernameDomainDocuments = ArrayList<Document>()
         for (username in saltedDomainHashesForUsernames(unregisteredUsernames).keys) {
-            val document = platform.names.createDomainDocument(identity!!, username, usernameSalts[username]!!.toHexString())
+            val document = platform.names.createDomainDocument(identity!!, username, usernameStore.saltOf(username)!!.toHexString())
             usernameDomainDocuments.add(document)
         }
         return usernameDomainDocuments
@@ -652,9 +786,7 @@ class BlockchainIdentity {
 
 
     fun addUsername(username: String, status: UsernameStatus, save: Boolean) {
-        val map = HashMap<String, UsernameStatus>()
-        map[BLOCKCHAIN_USERNAME_STATUS] = UsernameStatus.INITIAL
-        usernameStatuses[username] = map
+        usernameStore.setStatus(username, UsernameStatus.INITIAL)
 
         if (save) {
             saveNewUsername(username, UsernameStatus.INITIAL)
@@ -669,25 +801,25 @@ class BlockchainIdentity {
     }
 
     fun statusOfUsername(username: String): UsernameStatus {
-        return if(usernameStatuses.containsKey(username)) {
-            (usernameStatuses[username] as MutableMap<String, Any>)[BLOCKCHAIN_USERNAME_STATUS] as UsernameStatus
-        } else UsernameStatus.NOT_PRESENT
+        return usernameStore.statusOf(username)
     }
 
     fun getUsernames() : List<String> {
-        return usernameStatuses.keys.toList()
+        return usernameStore.usernames()
     }
 
     fun getUsernamesWithStatus(usernameStatus: UsernameStatus): MutableList<String> {
-        val usernames = ArrayList<String>()
-        for (username in usernameStatuses.keys) {
-            val usernameInfo = usernameStatuses[username] as MutableMap<String, Any?>
-            val status = usernameInfo[BLOCKCHAIN_USERNAME_STATUS] as UsernameStatus
-            if (status == usernameStatus) {
-                usernames.add(username)
-            }
-        }
-        return usernames
+        return usernameStore.usernamesWithStatus(usernameStatus)
+    }
+
+    /**
+     * Moves [username] to [status] if its status is one of [from]. The monitors use this so that
+     * a late result never moves a username back to an earlier status set by another thread.
+     *
+     * @return true if this call changed the status
+     */
+    private fun advanceUsernameStatus(username: String, status: UsernameStatus, vararg from: UsernameStatus): Boolean {
+        return from.any { usernameStore.compareAndSetStatus(username, it, status) }
     }
 
     fun getUnregisteredUsernames(): MutableList<String> {
@@ -700,13 +832,17 @@ class BlockchainIdentity {
 
     // MARK: - Signing and Encryption
 
+    /**
+     * Signs [transition] with the key at [keyIndex]. Pass the [keyCrypter] of an encrypted wallet:
+     * the key material is then derived for this call only and is not kept in the cache.
+     */
     fun signStateTransition(transition: StateTransition, keyIndex: Int, signingAlgorithm: IdentityPublicKey.TYPES, keyCrypter: KeyCrypter? = null) {
 
-        val privateKey = privateKeyAtIndex(keyIndex, signingAlgorithm)
-        Preconditions.checkState(privateKey != null, "The private key should exist");
+        val keyMaterial = if (keyCrypter == null) keyMaterialAtIndex(keyIndex, signingAlgorithm)
+            else privateKeyAtIndex(keyIndex, signingAlgorithm)?.let { KeyMaterial(keyIndex, signingAlgorithm, it) }
+        Preconditions.checkState(keyMaterial != null, "The private key should exist");
 
-        val identityPublicKey = IdentityPublicKey(keyIndex + 1, signingAlgorithm, privateKey!!.pubKey.toBase64(), true)
-        transition.sign(identityPublicKey, privateKey!!.privateKeyAsHex)
+        transition.sign(keyMaterial!!.identityPublicKey, keyMaterial.privateKeyHex)
     }
 
     fun signStateTransition(transition: StateTransition) {
@@ -719,15 +855,22 @@ class BlockchainIdentity {
 
     fun derivationPathForType(type:IdentityPublicKey.TYPES): ImmutableList<ChildNumber>? {
         if (isLocal) {
-            if (type == IdentityPublicKey.TYPES.ECDSA_SECP256K1) {
-                return DerivationPathFactory(wallet!!.params).blockchainIdentityECDSADerivationPath()
-            } else if (type == IdentityPublicKey.TYPES.BLS) {
-                return DerivationPathFactory(wallet!!.params).blockchainIdentityBLSDerivationPath()
+            return derivationPaths.getOrPut(type) {
+                when (type) {
+                    IdentityPublicKey.TYPES.ECDSA_SECP256K1 -> derivationPathFactory.blockchainIdentityECDSADerivationPath()
+                    IdentityPublicKey.TYPES.BLS -> derivationPathFactory.blockchainIdentityBLSDerivationPath()
+                    else -> return null
+                }
             }
         }
         return null
     }
 
+    /** The derived key, its public key encoding and IdentityPublicKey for [index], cached after the first use */
+    fun keyMaterialAtIndex(index: Int, type: IdentityPublicKey.TYPES): KeyMaterial? {
+        return keyMaterialCache.get(index, type) { privateKeyAtIndex(index, type) }
+    }
+
     private fun privateKeyAtIndex(index: Int, type: IdentityPublicKey.TYPES): ECKey? {
         if (isLocal) {
 
@@ -754,32 +897,42 @@ class BlockchainIdentity {
 
     // MARK: Saving
 
-    fun saveInitial() {
-        /*
-            save the following to the Room Database
-            - uniqueId
-            - isLocal
-            - if (isLocal) {
-                creditFundingTransaction
+    /** The journal that the save methods write to, nothing is saved when it is null */
+    var journal: IdentityJournal? = null
 
-                }
-             - network id (wallet.params.id)
-             - usernameStatuses
-             - DashPay stuff...
-         */
-        //TODO()
+    fun toIdentityRecord(): IdentityRecord {
+        return IdentityRecord(uniqueIdString, isLocal, type, registrationStatus, creditBalance.value, index,
+            identity?.let { Cbor.encode(it.toJSON()) })
+    }
+
+    /**
+     * Saves the identity and all of its usernames to [journal] with a single commit.
+     *
+     * Only the [IdentityRecord] and the usernames are saved. The funding transaction is restored
+     * from the wallet, while the network id and the DashPay state (contacts and profile) are not
+     * persisted, so they must be set up again by the caller after loading.
+     */
+    fun saveInitial() {
+        val journal = journal ?: return
+        journal.saveIdentity(toIdentityRecord(), false)
+        for (username in usernameStore.usernames()) {
+            journal.saveUsername(uniqueIdString, usernameStore[username]!!, false)
+        }
+        journal.commit()
     }
 
 
     fun save() {
         // save updates to creditBalance, registrationStatus, type
         // send notifications for the items that were updated
+        journal?.saveIdentity(toIdentityRecord())
     }
 
     fun saveUsernames(usernames:List<String>, status: UsernameStatus) {
         for (username in usernames) {
             saveUsername(username, status, null, false)
         }
+        journal?.commit()
     }
 
     fun saveUsernamesToStatuses(dictionary: MutableMap<String, UsernameStatus>) {
@@ -787,11 +940,18 @@ class BlockchainIdentity {
             val status = dictionary[username]
             saveUsername(username, status!!, null, false)
         }
+        journal?.commit()
     }
 
+    /**
+     * Appends the state of [username] to the journal. Without [commitSave] the record is written
+     * with the next commit.
+     */
     fun saveUsername(username: String, status: UsernameStatus, salt: ByteArray?, commitSave: Boolean) {
-        // save the username information to the Room database
-        //TODO()
+        val journal = journal ?: return
+        val current = usernameStore[username]
+        val info = current?.withStatus(status)?.withSalt(salt ?: current.salt) ?: UsernameInfo(username, status, salt)
+        journal.saveUsername(uniqueIdString, info, commitSave)
     }
 
     fun saveNewUsername(username: String, status: UsernameStatus) {
@@ -809,13 +969,26 @@ class BlockchainIdentity {
 
     //should this have a callback or let the client handle the end
     fun monitorForBlockchainIdentityWithRetryCount(retryCount: Int, delayMillis: Long, retryDelayType: RetryDelayType, callback: RegisterIdentityCallback) {
+        monitorForBlockchainIdentityWithRetryCount(retryCount, delayMillis, retryDelayType, callback) { false }
+    }
 
-        val identityResult = platform.identities.get(uniqueIdString)
+    /** Monitors like the public overload, but stops without calling [callback] once [isCancelled] returns true */
+    internal fun monitorForBlockchainIdentityWithRetryCount(retryCount: Int, delayMillis: Long, retryDelayType: RetryDelayType,
+                                                            callback: RegisterIdentityCallback, isCancelled: () -> Boolean) {
+        if (isCancelled()) {
+            return
+        }
+
+        // each attempt must reach Platform, get would return the cached "not found" of the last attempt
+        val identityResult = RateLimiter.withPriority(RateLimiter.RequestPriority.BACKGROUND) {
+            platform.identities.fetch(uniqueIdentifier)
+        }
 
         if (identityResult != null) {
             identity = identityResult
-            registrationStatus = RegistrationStatus.REGISTERED
-            save()
+            if (markRegistered()) {
+                save()
+            }
             callback.onComplete(uniqueIdString)
         } else {
             if (retryCount > 0) {
@@ -825,7 +998,7 @@ class BlockchainIdentity {
                         RetryDelayType.SLOW50 -> 3 / 2
                         else -> 1
                     }
-                    monitorForBlockchainIdentityWithRetryCount(retryCount - 1, nextDelay, retryDelayType, callback)
+                    monitorForBlockchainIdentityWithRetryCount(retryCount - 1, nextDelay, retryDelayType, callback, isCancelled)
                 }, delayMillis)
             } else callback.onTimeout()
         }
@@ -838,9 +1011,24 @@ class BlockchainIdentity {
                                                  delayMillis: Long,
                                                  retryDelayType: RetryDelayType,
                                                  callback: RegisterPreorderCallback) {
+        monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes, retryCount, delayMillis, retryDelayType, callback) { false }
+    }
 
-        val query = DocumentQuery.Builder().where(listOf("saltedDomainHash","in",saltedDomainHashes.map {"5620${it.value.toHexString()}"})).build()
-        val preorderDocuments = platform.documents.get("dpns.preorder", query)
+    /** Monitors like the public overload, but stops without calling [callback] once [isCancelled] returns true */
+    internal fun monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes: Map<String, ByteArray>,
+                                                          retryCount: Int,
+                                                          delayMillis: Long,
+                                                          retryDelayType: RetryDelayType,
+                                                          callback: RegisterPreorderCallback,
+                                                          isCancelled: () -> Boolean) {
+        if (isCancelled()) {
+            return
+        }
+
+        val query = Names.PREORDERS_QUERY.bind(saltedDomainHashes.map { "5620${it.value.toHexString()}" })
+        val preorderDocuments = RateLimiter.withPriority(RateLimiter.RequestPriority.BACKGROUND) {
+            platform.documents.get("dpns.preorder", query, SALTED_DOMAIN_HASH)
+        }
 
         if (preorderDocuments != null && preorderDocuments.isNotEmpty()) {
                 val usernamesLeft = HashMap(saltedDomainHashes)
@@ -848,13 +1036,11 @@ class BlockchainIdentity {
                     val saltedDomainHashData = saltedDomainHashes[username] as ByteArray
                     val saltedDomainHashString = "5620${saltedDomainHashData.toHexString()}"
                     for (preorderDocument in preorderDocuments) {
-                        if (preorderDocument.data["saltedDomainHash"] == saltedDomainHashString) {
-                            var usernameStatus = if (usernameStatuses.containsKey(username))
-                                usernameStatuses[username] as MutableMap<String, Any>
-                            else HashMap()
-                            usernameStatus[BLOCKCHAIN_USERNAME_STATUS] = UsernameStatus.PREORDERED
-                            usernameStatuses[username] = usernameStatus
-                            saveUsername(username, UsernameStatus.PREORDERED, null, true)
+                        if (preorderDocument["saltedDomainHash"] == saltedDomainHashString) {
+                            if (advanceUsernameStatus(username, UsernameStatus.PREORDERED, UsernameStatus.NOT_PRESENT,
+                                    UsernameStatus.INITIAL, UsernameStatus.PREORDER_REGISTRATION_PENDING)) {
+                                saveUsername(username, UsernameStatus.PREORDERED, null, true)
+                            }
                             usernamesLeft.remove(username)
                         }
                     }
@@ -867,7 +1053,7 @@ class BlockchainIdentity {
                             RetryDelayType.SLOW50 -> 3 / 2
                             else -> 1
                         }
-                        monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashesLeft,retryCount - 1, nextDelay, retryDelayType, callback)
+                        monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashesLeft,retryCount - 1, nextDelay, retryDelayType, callback, isCancelled)
                     }, delayMillis)
                 } else if (usernamesLeft.size > 0) {
                     val saltedDomainHashesLeft = saltedDomainHashes.filter { usernamesLeft.containsKey(it.key) }
@@ -883,7 +1069,7 @@ class BlockchainIdentity {
                         RetryDelayType.SLOW50 -> 3 / 2
                         else -> 1
                     }
-                    monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes, retryCount - 1, nextDelay, retryDelayType, callback)
+                    monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes, retryCount - 1, nextDelay, retryDelayType, callback, isCancelled)
                 }, delayMillis)
             } else {
                 callback.onTimeout(saltedDomainHashes.keys.toList())
@@ -898,24 +1084,36 @@ class BlockchainIdentity {
                                 retryDelayType: RetryDelayType,
                                 callback: RegisterNameCallback
     ) {
+        monitorForDPNSUsernames(usernames, retryCount, delayMillis, retryDelayType, callback) { false }
+    }
 
-        val query = DocumentQuery.Builder()
-            .where("normalizedParentDomainName", "==", "dash")
-            .where(listOf("normalizedLabel","in",usernames.map {"${it.toLowerCase()}"})).build()
-        val nameDocuments = platform.documents.get("dpns.domain", query)
+    /** Monitors like the public overload, but stops without calling [callback] once [isCancelled] returns true */
+    internal fun monitorForDPNSUsernames(usernames: List<String>,
+                                         retryCount: Int,
+                                         delayMillis: Long,
+                                         retryDelayType: RetryDelayType,
+                                         callback: RegisterNameCallback,
+                                         isCancelled: () -> Boolean) {
+        if (isCancelled()) {
+            return
+        }
+
+        val query = Names.DOMAINS_QUERY.bind(Names.DEFAULT_PARENT_DOMAIN, usernames.map { it.toLowerCase() })
+        val nameDocuments = RateLimiter.withPriority(RateLimiter.RequestPriority.BACKGROUND) {
+            platform.documents.get("dpns.domain", query, NORMALIZED_LABEL)
+        }
 
         if (nameDocuments != null && nameDocuments.isNotEmpty()) {
             val usernamesLeft = ArrayList(usernames)
             for (username in usernames) {
                 val normalizedName = username.toLowerCase()
                 for (nameDocument in nameDocuments) {
-                    if (nameDocument.data["normalizedLabel"] == normalizedName) {
-                        var usernameStatus = if (usernameStatuses.containsKey(username))
-                            usernameStatuses[username] as MutableMap<String, Any>
-                        else HashMap()
-                        usernameStatus[BLOCKCHAIN_USERNAME_STATUS] = UsernameStatus.CONFIRMED
-                        usernameStatuses[username] = usernameStatus
-                        saveUsername(username, UsernameStatus.CONFIRMED, null, true)
+                    if (nameDocument["normalizedLabel"] == normalizedName) {
+                        if (advanceUsernameStatus(username, UsernameStatus.CONFIRMED, UsernameStatus.NOT_PRESENT,
+                                UsernameStatus.INITIAL, UsernameStatus.PREORDER_REGISTRATION_PENDING,
+                                UsernameStatus.PREORDERED, UsernameStatus.REGISTRATION_PENDING)) {
+                            saveUsername(username, UsernameStatus.CONFIRMED, null, true)
+                        }
                         usernamesLeft.remove(username)
                     }
                 }
@@ -927,7 +1125,7 @@ class BlockchainIdentity {
                         RetryDelayType.SLOW50 -> 3 / 2
                         else -> 1
                     }
-                    monitorForDPNSUsernames(usernamesLeft,retryCount - 1, nextDelay, retryDelayType, callback)
+                    monitorForDPNSUsernames(usernamesLeft,retryCount - 1, nextDelay, retryDelayType, callback, isCancelled)
                 }, delayMillis)
             } else if (usernamesLeft.size > 0) {
                 callback.onTimeout(usernamesLeft)
@@ -942,7 +1140,7 @@ class BlockchainIdentity {
                         RetryDelayType.SLOW50 -> 3 / 2
                         else -> 1
                     }
-                    monitorForDPNSUsernames(usernames, retryCount - 1, nextDelay, retryDelayType, callback)
+                    monitorForDPNSUsernames(usernames, retryCount - 1, nextDelay, retryDelayType, callback, isCancelled)
                 }, delayMillis)
             } else {
                 callback.onTimeout(usernames)
@@ -0,0 +1,303 @@
+package org.dashevo.dashpay
+
+import org.bitcoinj.evolution.CreditFundingTransaction
+import org.bitcoinj.wallet.Wallet
+import org.dashevo.dashpay.callback.IdentityStateListener
+import org.dashevo.dashpay.callback.RegisterIdentityCallback
+import org.dashevo.dashpay.callback.RegisterNameCallback
+import org.dashevo.dashpay.callback.RegisterPreorderCallback
+import org.dashevo.dashpay.storage.IdentityJournal
+import org.dashevo.dashpay.storage.IdentityLoader
+import org.dashevo.dpp.identity.Identity
+import org.dashevo.platform.Identifier
+import org.dashevo.platform.Platform
+import org.dashevo.platform.RateLimiter
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+/**
+ * Owns the blockchain identities of a [Wallet].
+ *
+ * Every identity managed here shares [platform], and with it the gRPC channel and the rate
+ * limiter. The work done for the whole set, registrations, monitoring and the background
+ * re-verification, runs on one pool of [maxConcurrentRequests] threads, which bounds the number
+ * of Platform calls in flight no matter how many identities there are. Monitoring is a single
+ * periodic pass over all identities instead of one timer per identity and call.
+ *
+ * Identities are indexed by uniqueId and by username. The username index follows the
+ * [BlockchainIdentity.events] of each identity, so a username added to an identity can be found
+ * here once that change has been reported. The updates of the identities are delivered on the
+ * same pool while they are managed here.
+ *
+ * @property journal IdentityJournal? the journal that the identities are saved to and loaded from
+ */
+class BlockchainIdentityManager @JvmOverloads constructor(
+    val wallet: Wallet,
+    val platform: Platform = Platform(wallet.params),
+    val journal: IdentityJournal? = null,
+    val maxConcurrentRequests: Int = 8
+) : Closeable {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(BlockchainIdentityManager::class.java)
+    }
+
+    private val identities = ConcurrentHashMap<Identifier, BlockchainIdentity>()
+    private val usernameIndex = ConcurrentHashMap<String, Identifier>()
+
+    private val executor: ExecutorService = Executors.newFixedThreadPool(maxConcurrentRequests) { runnable ->
+        val thread = Thread(runnable, "BlockchainIdentityManager")
+        thread.isDaemon = true
+        thread
+    }
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "BlockchainIdentityManager-monitor")
+        thread.isDaemon = true
+        thread
+    }
+    private var monitoring: ScheduledFuture<*>? = null
+    // the identities whose checks from an earlier pass have not finished yet
+    private val checking = ConcurrentHashMap.newKeySet<Identifier>()
+
+    private val indexListener = object : IdentityStateListener {
+        override fun onStateChanged(update: IdentityStateUpdate) {
+            if (update.usernameStatuses.isEmpty()) {
+                return
+            }
+            val uniqueId = Identifier.fromBase58(update.uniqueId)
+            for (username in update.usernameStatuses.keys) {
+                usernameIndex[username.toLowerCase()] = uniqueId
+            }
+        }
+    }
+
+    private val identityCallback = object : RegisterIdentityCallback {
+        override fun onComplete(uniqueId: String) {}
+        override fun onTimeout() {}
+    }
+
+    private val preorderCallback = object : RegisterPreorderCallback {
+        override fun onComplete(names: List<String>) {}
+        override fun onTimeout(incompleteNames: List<String>) {}
+    }
+
+    private val nameCallback = object : RegisterNameCallback {
+        override fun onComplete(names: List<String>) {}
+        override fun onTimeout(incompleteNames: List<String>) {}
+    }
+
+    val size: Int
+        get() = identities.size
+
+    fun identities(): List<BlockchainIdentity> {
+        return identities.values.toList()
+    }
+
+    /** Returns the identity [uniqueId], null if it is not managed here or not a base58 [Identifier] */
+    operator fun get(uniqueId: String): BlockchainIdentity? {
+        val identifier = Identifier.fromBase58OrNull(uniqueId) ?: return null
+        return identities[identifier]
+    }
+
+    operator fun get(uniqueId: Identifier): BlockchainIdentity? {
+        return identities[uniqueId]
+    }
+
+    fun getByUsername(username: String): BlockchainIdentity? {
+        val uniqueId = usernameIndex[username.toLowerCase()] ?: return null
+        val blockchainIdentity = identities[uniqueId] ?: return null
+        // the index is not cleaned up when a username is removed
+        return if (blockchainIdentity.getUsernames().any { it.equals(username, true) }) blockchainIdentity else null
+    }
+
+    /**
+     * Adds [blockchainIdentity] to this manager, sets the journal on it if it has none and
+     * delivers its updates on the pool of this manager
+     */
+    fun add(blockchainIdentity: BlockchainIdentity) {
+        val uniqueId = blockchainIdentity.uniqueIdentifier
+        identities[uniqueId] = blockchainIdentity
+        if (blockchainIdentity.journal == null) {
+            blockchainIdentity.journal = journal
+        }
+        blockchainIdentity.events.executor = executor
+        for (username in blockchainIdentity.getUsernames()) {
+            usernameIndex[username.toLowerCase()] = uniqueId
+        }
+        blockchainIdentity.events.addListener(indexListener)
+    }
+
+    fun remove(uniqueId: String): BlockchainIdentity? {
+        val identifier = Identifier.fromBase58OrNull(uniqueId) ?: return null
+        return remove(identifier)
+    }
+
+    fun remove(uniqueId: Identifier): BlockchainIdentity? {
+        val blockchainIdentity = identities.remove(uniqueId) ?: return null
+        blockchainIdentity.events.removeListener(indexListener)
+        releaseEvents(blockchainIdentity)
+        usernameIndex.values.removeAll { it == uniqueId }
+        return blockchainIdentity
+    }
+
+    /**
+     * Restores the identities saved in the journal without contacting Platform and then
+     * re-verifies them in the background
+     *
+     * @return the restored identities
+     */
+    fun load(): List<BlockchainIdentity> {
+        val journal = checkNotNull(journal) { "there is no journal to load from" }
+        val loader = IdentityLoader(journal, wallet, platform)
+        val loaded = loader.load()
+        loaded.forEach { add(it) }
+        loader.verify(loaded, executor).exceptionally {
+            log.warn("verifying the restored identities failed", it)
+            null
+        }
+        return loaded
+    }
+
+    /**
+     * Finds the registered identities of the wallet on Platform with an [IdentityRecoveryScanner]
+     * and adds those that are not managed yet
+     */
+    fun recover(): IdentityRecoveryScanner.Result {
+        val result = IdentityRecoveryScanner(wallet, platform, parallelism = maxConcurrentRequests).scan()
+        for (blockchainIdentity in result.identities) {
+            if (!identities.containsKey(blockchainIdentity.uniqueIdentifier)) {
+                add(blockchainIdentity)
+                blockchainIdentity.saveInitial()
+            }
+        }
+        return result
+    }
+
+    /** Creates and adds the identity of [transaction], looking up its registration status */
+    fun create(type: Identity.IdentityType, transaction: CreditFundingTransaction): CompletableFuture<BlockchainIdentity> {
+        return CompletableFuture.supplyAsync(Supplier {
+            val blockchainIdentity = BlockchainIdentity(type, transaction, wallet, platform)
+            add(blockchainIdentity)
+            blockchainIdentity.saveInitial()
+            blockchainIdentity
+        }, executor)
+    }
+
+    /** Registers each of [blockchainIdentities], at most [maxConcurrentRequests] at a time */
+    fun registerIdentities(blockchainIdentities: List<BlockchainIdentity>): CompletableFuture<Void> {
+        val futures = blockchainIdentities.map { blockchainIdentity ->
+            CompletableFuture.runAsync(Runnable { blockchainIdentity.registerIdentity() }, executor)
+        }
+        return CompletableFuture.allOf(*futures.toTypedArray())
+    }
+
+    /** Checks the pending identities and usernames every [periodMillis] until [stopMonitoring] is called */
+    @Synchronized
+    fun startMonitoring(periodMillis: Long) {
+        monitoring?.cancel(false)
+        monitoring = scheduler.scheduleWithFixedDelay({
+            try {
+                checkPending().join()
+            } catch (e: Exception) {
+                log.warn("monitoring the identities failed", e)
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS)
+    }
+
+    @Synchronized
+    fun stopMonitoring() {
+        monitoring?.cancel(false)
+        monitoring = null
+    }
+
+    /**
+     * Checks once, at background priority, every identity that is registered but not yet
+     * fetched and every username with a pending preorder or domain. An identity whose checks
+     * from an earlier call are still running is skipped.
+     *
+     * @return a future that completes when every check has run
+     */
+    fun checkPending(): CompletableFuture<Void> {
+        val futures = ArrayList<CompletableFuture<Void>>()
+        for ((uniqueId, blockchainIdentity) in identities) {
+            if (!checking.add(uniqueId)) {
+                continue
+            }
+            val checks = ArrayList<CompletableFuture<Void>>()
+            if (blockchainIdentity.identity == null && blockchainIdentity.registrationStatus == BlockchainIdentity.RegistrationStatus.REGISTERED) {
+                checks.add(runInBackground {
+                    blockchainIdentity.monitorForBlockchainIdentityWithRetryCount(0, 0,
+                        BlockchainIdentity.RetryDelayType.LINEAR, identityCallback)
+                })
+            }
+            val preorders = blockchainIdentity.getUsernamesWithStatus(BlockchainIdentity.UsernameStatus.PREORDER_REGISTRATION_PENDING)
+            if (preorders.isNotEmpty()) {
+                checks.add(runInBackground {
+                    // the salts were saved when the preorders were sent
+                    val saltedDomainHashes = HashMap<String, ByteArray>()
+                    for (username in preorders) {
+                        val salt = blockchainIdentity.usernameStore.saltOf(username) ?: continue
+                        saltedDomainHashes[username] = platform.names.getSaltedDomainHashBytes(salt, username)
+                    }
+                    if (saltedDomainHashes.isNotEmpty()) {
+                        blockchainIdentity.monitorForDPNSPreorderSaltedDomainHashes(saltedDomainHashes, 0, 0,
+                            BlockchainIdentity.RetryDelayType.LINEAR, preorderCallback)
+                    }
+                })
+            }
+            val domains = blockchainIdentity.getUsernamesWithStatus(BlockchainIdentity.UsernameStatus.REGISTRATION_PENDING)
+            if (domains.isNotEmpty()) {
+                checks.add(runInBackground {
+                    blockchainIdentity.monitorForDPNSUsernames(domains, 0, 0,
+                        BlockchainIdentity.RetryDelayType.LINEAR, nameCallback)
+                })
+            }
+            val all = CompletableFuture.allOf(*checks.toTypedArray())
+            all.whenComplete { _, _ -> checking.remove(uniqueId) }
+            futures.add(all)
+        }
+        return CompletableFuture.allOf(*futures.toTypedArray())
+    }
+
+    /** Saves the state of every identity to the journal with a single commit */
+    fun saveAll() {
+        val journal = journal ?: return
+        for (blockchainIdentity in identities.values) {
+            journal.saveIdentity(blockchainIdentity.toIdentityRecord(), false)
+            for (username in blockchainIdentity.getUsernames()) {
+                val info = blockchainIdentity.usernameStore[username] ?: continue
+                journal.saveUsername(blockchainIdentity.uniqueIdString, info, false)
+            }
+        }
+        journal.commit()
+    }
+
+    override fun close() {
+        stopMonitoring()
+        identities.values.forEach { releaseEvents(it) }
+        scheduler.shutdown()
+        executor.shutdown()
+        journal?.commit()
+    }
+
+    /** Moves the updates of [blockchainIdentity] back to the shared thread if they are delivered on this pool */
+    private fun releaseEvents(blockchainIdentity: BlockchainIdentity) {
+        if (blockchainIdentity.events.executor === executor) {
+            blockchainIdentity.events.executor = null
+        }
+    }
+
+    private fun runInBackground(block: () -> Unit): CompletableFuture<Void> {
+        return CompletableFuture.runAsync(Runnable {
+            RateLimiter.withPriority(RateLimiter.RequestPriority.BACKGROUND, block)
+        }, executor)
+    }
+}
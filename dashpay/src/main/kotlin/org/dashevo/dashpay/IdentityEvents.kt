@@ -0,0 +1,194 @@
+package org.dashevo.dashpay
+
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+import org.bitcoinj.core.Coin
+import org.dashevo.dashpay.BlockchainIdentity.RegistrationStatus
+import org.dashevo.dashpay.BlockchainIdentity.UsernameStatus
+import org.dashevo.dashpay.callback.IdentityStateListener
+import org.slf4j.LoggerFactory
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * The state of a blockchain identity after one or more changes
+ *
+ * @property usernameStatuses Map<String, UsernameStatus> the status of every username
+ * @property changedUsernames Set<String> the usernames whose status changed since the previous update
+ */
+class IdentityStateUpdate(
+    val uniqueId: String,
+    val registrationStatus: RegistrationStatus,
+    val creditBalance: Coin,
+    val usernameStatuses: Map<String, UsernameStatus>,
+    val changedUsernames: Set<String>
+) {
+    override fun toString(): String {
+        return "IdentityStateUpdate(uniqueId=$uniqueId, registrationStatus=$registrationStatus, " +
+                "creditBalance=$creditBalance, usernameStatuses=$usernameStatuses, changedUsernames=$changedUsernames)"
+    }
+}
+
+/**
+ * Reports changes of the registration status, balance and username statuses of a
+ * [BlockchainIdentity] to listeners that can be added and removed at any time.
+ *
+ * Changes are coalesced: the first change schedules an update [coalesceMillis] later and the
+ * changes made until then are reported together in that one update, with the latest state.
+ * A listener that is added receives the current state first. Updates are delivered one at a
+ * time and in order on [executor], or on a thread shared by all identities when it is not set, so
+ * listeners should hand off any slow work.
+ */
+class IdentityEvents(private val blockchainIdentity: BlockchainIdentity) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(IdentityEvents::class.java)
+
+        private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+            val thread = Thread(runnable, "IdentityEvents")
+            thread.isDaemon = true
+            thread
+        }
+    }
+
+    @Volatile
+    var coalesceMillis: Long = 100
+
+    /**
+     * The executor that the updates are delivered on, null to use the thread shared by all
+     * identities. The shared thread still times the coalescing.
+     */
+    @Volatile
+    var executor: Executor? = null
+
+    private val listeners = CopyOnWriteArrayList<IdentityStateListener>()
+    private val changedUsernames = LinkedHashSet<String>()
+    private var scheduled = false
+    // held while an update is created and delivered, so that updates stay in order on a pool
+    private val deliveryLock = Any()
+
+    fun addListener(listener: IdentityStateListener) {
+        listeners.add(listener)
+        execute {
+            synchronized(deliveryLock) {
+                if (listeners.contains(listener)) {
+                    createUpdate(setOf())?.let { notify(listener, it) }
+                }
+            }
+        }
+    }
+
+    fun removeListener(listener: IdentityStateListener) {
+        listeners.remove(listener)
+    }
+
+    /** Returns the updates as a flow that starts with the current state, a slow collector only sees the latest */
+    @ExperimentalCoroutinesApi
+    fun asFlow(): Flow<IdentityStateUpdate> = callbackFlow<IdentityStateUpdate> {
+        val listener = object : IdentityStateListener {
+            override fun onStateChanged(update: IdentityStateUpdate) {
+                offer(update)
+            }
+        }
+        addListener(listener)
+        awaitClose { removeListener(listener) }
+    }.conflate()
+
+    fun stateChanged() {
+        changed(null)
+    }
+
+    fun usernameChanged(username: String) {
+        changed(username)
+    }
+
+    private fun changed(username: String?) {
+        if (listeners.isEmpty()) {
+            // a listener added later receives the state at that time
+            return
+        }
+        synchronized(this) {
+            if (username != null) {
+                changedUsernames.add(username)
+            }
+            if (!scheduled) {
+                scheduled = true
+                scheduler.schedule({
+                    if (!execute { deliver() }) {
+                        synchronized(this) { scheduled = false }
+                    }
+                }, coalesceMillis, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /** Runs [task] on the executor, returns false if the executor has been shut down */
+    private fun execute(task: () -> Unit): Boolean {
+        return try {
+            (executor ?: scheduler).execute(task)
+            true
+        } catch (e: RejectedExecutionException) {
+            log.warn("cannot deliver the identity state, the executor is shut down", e)
+            false
+        }
+    }
+
+    private fun deliver() {
+        synchronized(deliveryLock) {
+            val usernames = synchronized(this) {
+                scheduled = false
+                val usernames = LinkedHashSet(changedUsernames)
+                changedUsernames.clear()
+                usernames
+            }
+            val update = createUpdate(usernames)
+            if (update == null) {
+                // reported with the next change instead
+                synchronized(this) {
+                    changedUsernames.addAll(usernames)
+                }
+                return
+            }
+            for (listener in listeners) {
+                notify(listener, update)
+            }
+        }
+    }
+
+    private fun notify(listener: IdentityStateListener, update: IdentityStateUpdate) {
+        try {
+            listener.onStateChanged(update)
+        } catch (e: Exception) {
+            log.warn("identity state listener failed", e)
+        }
+    }
+
+    /**
+     * Returns the current state, or null while the identity is still being constructed and its
+     * unique id is not known yet, or if the state cannot be read
+     */
+    private fun createUpdate(changedUsernames: Set<String>): IdentityStateUpdate? {
+        if (!blockchainIdentity.hasUniqueIdentifier) {
+            return null
+        }
+        return try {
+            val usernameStore = blockchainIdentity.usernameStore
+            val usernameStatuses = LinkedHashMap<String, UsernameStatus>()
+            for (username in usernameStore.usernames()) {
+                usernameStatuses[username] = usernameStore.statusOf(username)
+            }
+            IdentityStateUpdate(blockchainIdentity.uniqueIdString, blockchainIdentity.registrationStatus,
+                blockchainIdentity.creditBalance, usernameStatuses, changedUsernames)
+        } catch (e: Exception) {
+            log.warn("cannot read the state of the identity", e)
+            null
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.dashevo.dashpay
+
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.evolution.CreditFundingTransaction
+import org.bitcoinj.wallet.Wallet
+import org.dashevo.dashpay.storage.IdentityRecord
+import org.dashevo.dpp.identity.Identity
+import org.dashevo.platform.Identifier
+import org.dashevo.platform.Platform
+import org.dashevo.platform.RateLimiter
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Finds the registered identities of a restored wallet.
+ *
+ * Recovery only covers the credit funding transactions that are already in the wallet, so the
+ * wallet must have been synced first. The keys of [Wallet.getBlockchainIdentityFundingKeyChain]
+ * are not walked: bitcoinj already looks ahead on that key chain while syncing, and a walk could
+ * not find anything that is not in the wallet. The identity of every funding transaction is
+ * looked up on Platform, [parallelism] at a time, in the order of the funding key index.
+ *
+ * @property parallelism Int the number of lookups in flight at a time
+ */
+class IdentityRecoveryScanner @JvmOverloads constructor(
+    val wallet: Wallet,
+    val platform: Platform = Platform(wallet.params),
+    val parallelism: Int = 8
+) {
+
+    companion object {
+        /**
+         * Orders [transactions] by the [index] of their funding key and keeps the first of those
+         * with the same [uniqueId], so that each identity is looked up once
+         */
+        internal fun <T> candidateOrder(transactions: Collection<T>, index: (T) -> Int, uniqueId: (T) -> Any): List<T> {
+            val seen = HashSet<Any>()
+            return transactions.sortedBy(index).filter { seen.add(uniqueId(it)) }
+        }
+
+        /**
+         * Runs [lookup] for [candidates], [parallelism] at a time, and returns the [materialize]d
+         * hits in the order of [candidates] with the failures by [uniqueId]
+         */
+        internal fun <C, I, R> check(candidates: List<C>, parallelism: Int, uniqueId: (C) -> String,
+                                     lookup: (C) -> I?, materialize: (C, I) -> R): Pair<List<R>, Map<String, Exception>> {
+            val executor = Executors.newFixedThreadPool(parallelism) { runnable ->
+                val thread = Thread(runnable, "IdentityRecoveryScanner")
+                thread.isDaemon = true
+                thread
+            }
+            val found = ArrayList<R>()
+            val failures = LinkedHashMap<String, Exception>()
+            try {
+                val lookups = candidates.map { candidate -> executor.submit(Callable<I?> { lookup(candidate) }) }
+                for ((candidate, lookup) in candidates.zip(lookups)) {
+                    try {
+                        val identity = getResult(lookup) ?: continue
+                        found.add(materialize(candidate, identity))
+                    } catch (e: Exception) {
+                        failures[uniqueId(candidate)] = e
+                    }
+                }
+            } finally {
+                executor.shutdownNow()
+            }
+            return Pair(found, failures)
+        }
+
+        private fun <I> getResult(lookup: Future<I?>): I? {
+            try {
+                return lookup.get()
+            } catch (e: ExecutionException) {
+                throw (e.cause as? Exception) ?: e
+            }
+        }
+    }
+
+    /**
+     * @property identities List<BlockchainIdentity> the identities found, in key index order
+     * @property failures Map<String, Exception> the uniqueIds that could not be checked, with the error
+     */
+    class Result(val identities: List<BlockchainIdentity>, val failures: Map<String, Exception>)
+
+    private class Candidate(val transaction: CreditFundingTransaction) {
+        val index: Int = transaction.usedDerivationPathIndex
+        val uniqueId: Identifier = Identifier.from(Sha256Hash.twiceOf(transaction.lockedOutpoint.bitcoinSerialize()))
+    }
+
+    fun scan(): Result {
+        val candidates = candidateOrder(wallet.getCreditFundingTransactions().map { Candidate(it) }, { it.index }, { it.uniqueId })
+        val (identities, failures) = check(candidates, parallelism, { it.uniqueId.toBase58() }, { candidate ->
+            RateLimiter.withPriority(RateLimiter.RequestPriority.BACKGROUND) {
+                // not get, whose cached "not found" of the last seconds would hide a registration
+                platform.identities.fetch(candidate.uniqueId)
+            }
+        }, ::materialize)
+        return Result(identities, failures)
+    }
+
+    private fun materialize(candidate: Candidate, identity: Identity): BlockchainIdentity {
+        val record = IdentityRecord(candidate.uniqueId.toBase58(), true, identity.type,
+            BlockchainIdentity.RegistrationStatus.REGISTERED, identity.balance, candidate.index, null)
+        val blockchainIdentity = BlockchainIdentity(candidate.transaction, record, listOf(), wallet, platform)
+        blockchainIdentity.identity = identity
+        return blockchainIdentity
+    }
+}
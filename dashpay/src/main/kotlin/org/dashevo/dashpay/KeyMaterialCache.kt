@@ -0,0 +1,48 @@
+package org.dashevo.dashpay
+
+import org.bitcoinj.core.ECKey
+import org.dashevo.dpp.identity.IdentityPublicKey
+import org.dashevo.dpp.toBase64
+import java.util.*
+
+/**
+ * The derived key of a blockchain identity together with the encodings used to sign with it
+ *
+ * @property identityPublicKey the public key as registered with the identity (id = index + 1)
+ */
+class KeyMaterial(val index: Int, privateKey: ECKey, val identityPublicKey: IdentityPublicKey) {
+    val privateKeyHex: String = privateKey.privateKeyAsHex
+
+    constructor(index: Int, type: IdentityPublicKey.TYPES, privateKey: ECKey) :
+        this(index, privateKey, IdentityPublicKey(index + 1, type, privateKey.pubKey.toBase64(), true))
+}
+
+/**
+ * Caches the [KeyMaterial] of a blockchain identity by key type and index, so that signing
+ * many transitions derives and encodes each key only once. The owner must [clear] it whenever
+ * the keys that it derives from change.
+ */
+class KeyMaterialCache {
+    private val keys = EnumMap<IdentityPublicKey.TYPES, MutableMap<Int, KeyMaterial>>(IdentityPublicKey.TYPES::class.java)
+
+    /**
+     * Returns the key material at [index] for [type], calling [derive] to obtain the private key
+     * the first time it is requested. Nothing is cached when [derive] returns null.
+     */
+    @Synchronized
+    fun get(index: Int, type: IdentityPublicKey.TYPES, derive: () -> ECKey?): KeyMaterial? {
+        val keysOfType = keys.getOrPut(type) { HashMap() }
+        var keyMaterial = keysOfType[index]
+        if (keyMaterial == null) {
+            val privateKey = derive() ?: return null
+            keyMaterial = KeyMaterial(index, type, privateKey)
+            keysOfType[index] = keyMaterial
+        }
+        return keyMaterial
+    }
+
+    @Synchronized
+    fun clear() {
+        keys.clear()
+    }
+}
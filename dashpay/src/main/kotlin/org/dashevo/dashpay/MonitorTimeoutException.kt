@@ -0,0 +1,11 @@
+package org.dashevo.dashpay
+
+import java.util.concurrent.TimeoutException
+
+/**
+ * Thrown when a monitor runs out of retries before the network confirms every item
+ *
+ * @property incompleteItems the uniqueIds or usernames that were not found
+ */
+class MonitorTimeoutException(val incompleteItems: List<String>) :
+    TimeoutException("monitoring timed out before confirming: $incompleteItems")
@@ -0,0 +1,286 @@
+package org.dashevo.dashpay
+
+import org.dashevo.dashpay.BlockchainIdentity.Companion.BLOCKCHAIN_USERNAME_SALT
+import org.dashevo.dashpay.BlockchainIdentity.Companion.BLOCKCHAIN_USERNAME_STATUS
+import org.dashevo.dashpay.BlockchainIdentity.UsernameStatus
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListSet
+
+/**
+ * The state of one username of a blockchain identity. Records are immutable, a change of status
+ * or salt replaces the record in the [UsernameStore].
+ *
+ * @property createdAt Long the time the username was added, in milliseconds since the epoch
+ * @property updatedAt Long the time of the last change of status or salt
+ */
+class UsernameInfo(
+    val username: String,
+    val status: UsernameStatus,
+    val salt: ByteArray?,
+    val createdAt: Long,
+    val updatedAt: Long
+) {
+    constructor(username: String, status: UsernameStatus, salt: ByteArray?, time: Long = System.currentTimeMillis()) :
+            this(username, status, salt, time, time)
+
+    fun withStatus(status: UsernameStatus, time: Long = System.currentTimeMillis()): UsernameInfo {
+        return UsernameInfo(username, status, salt, createdAt, time)
+    }
+
+    fun withSalt(salt: ByteArray?, time: Long = System.currentTimeMillis()): UsernameInfo {
+        return UsernameInfo(username, status, salt, createdAt, time)
+    }
+
+    override fun toString(): String {
+        return "UsernameInfo(username=$username, status=$status, hasSalt=${salt != null}, createdAt=$createdAt, updatedAt=$updatedAt)"
+    }
+}
+
+
+/**
+ * The usernames of a blockchain identity, indexed by name and by status.
+ *
+ * Lookups by name are a single hash map access and [usernamesWithStatus] reads the index set of
+ * that status, which is kept up to date on every change, instead of scanning all usernames. The
+ * index sets are sorted by name.
+ *
+ * A salt can be generated before a username is added, such a record has the status
+ * [UsernameStatus.NOT_PRESENT] and is not listed by [usernames].
+ *
+ * The store is safe for concurrent use. A change of one username holds a lock of that username
+ * only, so a write costs the same however many usernames there are and writes to different
+ * usernames rarely contend. [compareAndSetStatus] moves a username from one status to the next
+ * atomically. Readers take no lock: the record of a username is changed before the index sets,
+ * so a username listed with a status has that status or a later one, and may be missing from
+ * the sets for a moment while it moves.
+ */
+class UsernameStore {
+
+    companion object {
+        private const val LOCK_STRIPES = 32
+
+        /** Creates a store from a map in the format of [toMap] */
+        @JvmStatic
+        fun fromMap(map: Map<String, Any?>): UsernameStore {
+            val store = UsernameStore()
+            store.putAll(map)
+            return store
+        }
+    }
+
+    /** The record of a username before and after a change */
+    private class Change(val before: UsernameInfo?, val after: UsernameInfo?)
+
+    private val records = ConcurrentHashMap<String, UsernameInfo>()
+    private val byStatus = EnumMap<UsernameStatus, MutableSet<String>>(UsernameStatus::class.java)
+    private val locks = Array(LOCK_STRIPES) { Any() }
+
+    init {
+        for (status in UsernameStatus.values()) {
+            byStatus[status] = ConcurrentSkipListSet()
+        }
+    }
+
+    /** Called with the username after its status changed or it was removed, not shared with a [copy] */
+    @Volatile
+    var changeListener: ((String) -> Unit)? = null
+
+    /** the number of usernames, not counting records that only hold a salt */
+    val size: Int
+        get() = Math.max(0, records.size - byStatus.getValue(UsernameStatus.NOT_PRESENT).size)
+
+    operator fun get(username: String): UsernameInfo? {
+        return records[username]
+    }
+
+    operator fun contains(username: String): Boolean {
+        return statusOf(username) != UsernameStatus.NOT_PRESENT
+    }
+
+    fun statusOf(username: String): UsernameStatus {
+        return records[username]?.status ?: UsernameStatus.NOT_PRESENT
+    }
+
+    fun saltOf(username: String): ByteArray? {
+        return records[username]?.salt
+    }
+
+    fun usernames(): List<String> {
+        return records.values.filter { it.status != UsernameStatus.NOT_PRESENT }.map { it.username }
+    }
+
+    fun usernamesWithStatus(status: UsernameStatus): MutableList<String> {
+        return ArrayList(byStatus.getValue(status))
+    }
+
+    fun countWithStatus(status: UsernameStatus): Int {
+        return byStatus.getValue(status).size
+    }
+
+    /** Returns a store with a copy of the usernames, later changes to either store are not seen by the other */
+    fun copy(): UsernameStore {
+        val copy = UsernameStore()
+        copy.putAll(records.values)
+        return copy
+    }
+
+    /** Adds or replaces the record of [UsernameInfo.username] as it is, keeping its timestamps */
+    fun put(info: UsernameInfo) {
+        change(info.username) { info }
+    }
+
+    /** Adds [username] or replaces its status and salt */
+    fun put(username: String, status: UsernameStatus, salt: ByteArray?): UsernameInfo {
+        return change(username) { existing ->
+            existing?.withStatus(status)?.withSalt(salt) ?: UsernameInfo(username, status, salt)
+        }.after!!
+    }
+
+    /** Sets the status of [username], adding it when it is not present */
+    fun setStatus(username: String, status: UsernameStatus): UsernameInfo {
+        return change(username) { existing ->
+            when {
+                existing == null -> UsernameInfo(username, status, null)
+                existing.status == status -> existing
+                else -> existing.withStatus(status)
+            }
+        }.after!!
+    }
+
+    /**
+     * Sets the status of [username] to [update] only if it is [expect], a username that is not
+     * present has the status [UsernameStatus.NOT_PRESENT]
+     *
+     * @return true if the status was changed, false if it was not [expect]
+     */
+    fun compareAndSetStatus(username: String, expect: UsernameStatus, update: UsernameStatus): Boolean {
+        var changed = false
+        change(username) { existing ->
+            if ((existing?.status ?: UsernameStatus.NOT_PRESENT) != expect) {
+                existing
+            } else {
+                changed = true
+                existing?.withStatus(update) ?: UsernameInfo(username, update, null)
+            }
+        }
+        return changed
+    }
+
+    /**
+     * Returns the salt of [username], setting the one made by [create] first when the username has
+     * no salt or has the status [UsernameStatus.INITIAL]. The check and the change are one atomic
+     * step, and [create] is called at most once.
+     */
+    fun saltOrCreate(username: String, create: () -> ByteArray): ByteArray {
+        return change(username) { existing ->
+            if (existing?.salt != null && existing.status != UsernameStatus.INITIAL) {
+                existing
+            } else {
+                existing?.withSalt(create()) ?: UsernameInfo(username, UsernameStatus.NOT_PRESENT, create())
+            }
+        }.after!!.salt!!
+    }
+
+    /** Sets the salt of [username], keeping a salt only record when it is not present */
+    fun setSalt(username: String, salt: ByteArray): UsernameInfo {
+        return change(username) { existing ->
+            existing?.withSalt(salt) ?: UsernameInfo(username, UsernameStatus.NOT_PRESENT, salt)
+        }.after!!
+    }
+
+    fun remove(username: String): UsernameInfo? {
+        return change(username) { null }.before
+    }
+
+    fun clear() {
+        for (username in records.keys) {
+            remove(username)
+        }
+    }
+
+    /**
+     * Replaces the record of [username] with the result of [change], which is called with the
+     * current record while the lock of [username] is held. A null result removes the record.
+     */
+    private fun change(username: String, change: (UsernameInfo?) -> UsernameInfo?): Change {
+        val result = synchronized(locks[(username.hashCode() and Int.MAX_VALUE) % LOCK_STRIPES]) {
+            val existing = records[username]
+            val info = change(existing)
+            if (info !== existing) {
+                if (info != null) {
+                    records[username] = info
+                } else {
+                    records.remove(username)
+                }
+                // the record before the index, see the class documentation
+                if (existing?.status != info?.status) {
+                    existing?.let { byStatus.getValue(it.status).remove(username) }
+                    info?.let { byStatus.getValue(it.status).add(username) }
+                }
+            }
+            Change(existing, info)
+        }
+        if (result.before?.status != result.after?.status) {
+            changeListener?.invoke(username)
+        }
+        return result
+    }
+
+    /**
+     * Returns the usernames in the map format used by [BlockchainIdentity] before this store,
+     * username -> { [BLOCKCHAIN_USERNAME_STATUS]: status, [BLOCKCHAIN_USERNAME_SALT]: salt }
+     */
+    fun toMap(): MutableMap<String, Any?> {
+        val map = HashMap<String, Any?>(records.size)
+        for (info in records.values) {
+            if (info.status == UsernameStatus.NOT_PRESENT) {
+                continue
+            }
+            val data = HashMap<String, Any>(2)
+            data[BLOCKCHAIN_USERNAME_STATUS] = info.status
+            if (info.salt != null) {
+                data[BLOCKCHAIN_USERNAME_SALT] = info.salt
+            }
+            map[info.username] = data
+        }
+        return map
+    }
+
+    fun salts(): MutableMap<String, ByteArray> {
+        val salts = HashMap<String, ByteArray>()
+        for (info in records.values) {
+            if (info.salt != null) {
+                salts[info.username] = info.salt
+            }
+        }
+        return salts
+    }
+
+    /**
+     * Adds the usernames of a map in the format of [toMap]. The salt arrays are kept as they are,
+     * they are never modified by the store.
+     */
+    fun putAll(map: Map<String, Any?>) {
+        for ((username, value) in map) {
+            val data = value as? Map<*, *> ?: continue
+            put(username, parseStatus(data[BLOCKCHAIN_USERNAME_STATUS]), data[BLOCKCHAIN_USERNAME_SALT] as ByteArray?)
+        }
+    }
+
+    private fun parseStatus(status: Any?): UsernameStatus {
+        return when (status) {
+            is UsernameStatus -> status
+            is Number -> UsernameStatus.getByCode(status.toInt())
+            is String -> UsernameStatus.valueOf(status)
+            else -> UsernameStatus.INITIAL
+        }
+    }
+
+    /** Adds or replaces the records of [infos] as they are, like [put] */
+    fun putAll(infos: Collection<UsernameInfo>) {
+        for (info in infos) {
+            put(info)
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.dashevo.dashpay.callback
+
+import org.dashevo.dashpay.IdentityStateUpdate
+
+interface IdentityStateListener {
+    fun onStateChanged(update: IdentityStateUpdate)
+}
@@ -0,0 +1,381 @@
+package org.dashevo.dashpay.storage
+
+import org.dashevo.dashpay.BlockchainIdentity
+import org.dashevo.dashpay.UsernameInfo
+import org.dashevo.dpp.identity.Identity
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.zip.CRC32
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * An append-only journal of blockchain identity and username state, kept in [directory].
+ *
+ * Every save appends a record to the journal and updates the state held in memory. A save with
+ * commit set blocks until the record has been written and synced to disk. Saves without commit
+ * are buffered and written with the next commit, so a batch of usernames costs one write.
+ * Commits from several threads are grouped: while one thread syncs the journal, the records of
+ * the others accumulate and are synced together by the next one.
+ *
+ * Once [compactionThreshold] records have been appended the whole state is written to a
+ * snapshot file, which replaces the journal. Loading reads the snapshot and then replays the
+ * journal. Records are framed with their length and a CRC32, so a record torn by a crash is
+ * detected and dropped when the journal is opened.
+ *
+ * @property directory File the directory of the journal and snapshot files, created if needed
+ * @property compactionThreshold Int the number of records appended before the state is compacted
+ */
+class IdentityJournal @JvmOverloads constructor(
+    val directory: File,
+    val compactionThreshold: Int = 10000
+) : Closeable {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(IdentityJournal::class.java)
+
+        const val JOURNAL_FILE = "identities.journal"
+        const val SNAPSHOT_FILE = "identities.snapshot"
+
+        private const val RECORD_IDENTITY: Byte = 1
+        private const val RECORD_USERNAME: Byte = 2
+
+        /** records longer than this are treated as corrupt */
+        private const val MAX_RECORD_LENGTH = 16 * 1024 * 1024
+    }
+
+    private class StoredIdentity {
+        var record: IdentityRecord? = null
+        val usernames = LinkedHashMap<String, UsernameInfo>()
+    }
+
+    private val lock = ReentrantLock()
+    private val durable = lock.newCondition()
+
+    private val identities = LinkedHashMap<String, StoredIdentity>()
+
+    private val pending = ByteArrayOutputStream()
+    private var appendedSequence = 0L
+    private var durableSequence = 0L
+    private var committing = false
+    private var recordsSinceSnapshot = 0
+
+    private val journalFile = File(directory, JOURNAL_FILE)
+    private val snapshotFile = File(directory, SNAPSHOT_FILE)
+    private val journal: FileChannel
+
+    init {
+        if (!directory.isDirectory && !directory.mkdirs()) {
+            throw IOException("cannot create the journal directory $directory")
+        }
+        if (snapshotFile.exists()) {
+            replay(snapshotFile)
+        }
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)
+        val validLength = replay(journalFile)
+        if (validLength < journal.size()) {
+            log.warn("dropping ${journal.size() - validLength} bytes of incomplete records from $journalFile")
+            journal.truncate(validLength)
+        }
+        journal.position(validLength)
+    }
+
+    /** Returns the saved state of every identity */
+    fun identities(): List<IdentityRecord> {
+        return lock.withLock { identities.values.mapNotNull { it.record } }
+    }
+
+    fun identity(uniqueId: String): IdentityRecord? {
+        return lock.withLock { identities[uniqueId]?.record }
+    }
+
+    /** Returns the saved usernames of the identity [uniqueId] */
+    fun usernames(uniqueId: String): List<UsernameInfo> {
+        return lock.withLock { identities[uniqueId]?.usernames?.values?.toList() ?: listOf() }
+    }
+
+    @JvmOverloads
+    fun saveIdentity(record: IdentityRecord, commit: Boolean = true) {
+        val payload = encode { writeIdentity(it, record) }
+        append(payload, commit) { apply(record) }
+    }
+
+    @JvmOverloads
+    fun saveUsername(uniqueId: String, info: UsernameInfo, commit: Boolean = true) {
+        val payload = encode { writeUsername(it, uniqueId, info) }
+        append(payload, commit) { apply(uniqueId, info) }
+    }
+
+    /** Blocks until every record appended so far is on disk */
+    fun commit() {
+        val sequence = lock.withLock { appendedSequence }
+        awaitDurable(sequence)
+        compactIfNeeded()
+    }
+
+    /**
+     * Writes the current state to the snapshot file and empties the journal. Saves are blocked
+     * while the snapshot is written.
+     */
+    fun compact() {
+        lock.withLock {
+            while (committing) {
+                durable.await()
+            }
+            val snapshot = ByteArrayOutputStream()
+            for ((uniqueId, identity) in identities) {
+                identity.record?.let { record -> frame(snapshot, encode { writeIdentity(it, record) }) }
+                for (info in identity.usernames.values) {
+                    frame(snapshot, encode { writeUsername(it, uniqueId, info) })
+                }
+            }
+            val temporaryFile = File(directory, "$SNAPSHOT_FILE.tmp")
+            FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING).use { channel ->
+                writeFully(channel, snapshot.toByteArray())
+                channel.force(true)
+            }
+            Files.move(temporaryFile.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+            // the rename must be on disk before the journal is emptied, or a crash loses both
+            syncDirectory()
+            // the records in the journal are all in the snapshot, replaying them again is harmless
+            journal.truncate(0)
+            journal.force(true)
+            pending.reset()
+            durableSequence = appendedSequence
+            recordsSinceSnapshot = 0
+            durable.signalAll()
+        }
+    }
+
+    override fun close() {
+        commit()
+        journal.close()
+    }
+
+    private fun append(payload: ByteArray, commit: Boolean, apply: () -> Unit) {
+        val sequence = lock.withLock {
+            frame(pending, payload)
+            apply()
+            recordsSinceSnapshot++
+            ++appendedSequence
+        }
+        if (commit) {
+            awaitDurable(sequence)
+            compactIfNeeded()
+        }
+    }
+
+    private fun compactIfNeeded() {
+        if (lock.withLock { recordsSinceSnapshot >= compactionThreshold }) {
+            compact()
+        }
+    }
+
+    /**
+     * Waits until the record [sequence] is on disk. The first waiter writes and syncs all of the
+     * pending records while the later ones wait for it, or for the next batch.
+     */
+    private fun awaitDurable(sequence: Long) {
+        lock.withLock {
+            while (durableSequence < sequence) {
+                if (committing) {
+                    durable.await()
+                    continue
+                }
+                committing = true
+                val batch = pending.toByteArray()
+                val batchSequence = appendedSequence
+                pending.reset()
+                val start = journal.position()
+                var written = false
+                lock.unlock()
+                try {
+                    writeFully(journal, batch)
+                    journal.force(false)
+                    written = true
+                } finally {
+                    lock.lock()
+                    committing = false
+                    if (written) {
+                        durableSequence = batchSequence
+                    } else {
+                        // drop any part of the batch that was written, or replay would stop at the
+                        // torn record and discard the batch when it is written again after it
+                        discardFrom(start)
+                        // put the batch back in front of anything appended since
+                        val appended = pending.toByteArray()
+                        pending.reset()
+                        pending.write(batch)
+                        pending.write(appended)
+                    }
+                    durable.signalAll()
+                }
+            }
+        }
+    }
+
+    /**
+     * Truncates the journal to [position]. If that fails the journal is closed, so that no record
+     * is appended after a torn one and every later save fails.
+     */
+    private fun discardFrom(position: Long) {
+        try {
+            journal.truncate(position)
+            journal.position(position)
+        } catch (e: IOException) {
+            log.error("cannot truncate $journalFile after a failed write, closing it", e)
+            try {
+                journal.close()
+            } catch (closeException: IOException) {
+                e.addSuppressed(closeException)
+            }
+        }
+    }
+
+    /** Syncs [directory], so that a file renamed in it is durable. Not every platform can do this. */
+    private fun syncDirectory() {
+        try {
+            FileChannel.open(directory.toPath(), StandardOpenOption.READ).use { it.force(true) }
+        } catch (e: IOException) {
+            log.debug("cannot sync the directory $directory", e)
+        }
+    }
+
+    private fun apply(record: IdentityRecord) {
+        identities.getOrPut(record.uniqueId) { StoredIdentity() }.record = record
+    }
+
+    private fun apply(uniqueId: String, info: UsernameInfo) {
+        identities.getOrPut(uniqueId) { StoredIdentity() }.usernames[info.username] = info
+    }
+
+    /** Applies the records of [file] to the state and returns the length of its valid records */
+    private fun replay(file: File): Long {
+        var validLength = 0L
+        DataInputStream(file.inputStream().buffered()).use { input ->
+            val crc = CRC32()
+            while (true) {
+                val payload = try {
+                    val length = input.readInt()
+                    val checksum = input.readInt().toLong() and 0xffffffffL
+                    if (length < 1 || length > MAX_RECORD_LENGTH) {
+                        break
+                    }
+                    val payload = ByteArray(length)
+                    input.readFully(payload)
+                    crc.reset()
+                    crc.update(payload)
+                    if (crc.value != checksum) {
+                        break
+                    }
+                    payload
+                } catch (e: EOFException) {
+                    break
+                }
+                read(payload)
+                validLength += 8 + payload.size
+            }
+        }
+        return validLength
+    }
+
+    private fun read(payload: ByteArray) {
+        val input = DataInputStream(payload.inputStream())
+        when (input.readByte()) {
+            RECORD_IDENTITY -> apply(IdentityRecord(
+                input.readUTF(),
+                input.readBoolean(),
+                Identity.IdentityType.valueOf(input.readUTF()),
+                BlockchainIdentity.RegistrationStatus.valueOf(input.readUTF()),
+                input.readLong(),
+                input.readInt(),
+                readBytes(input)
+            ))
+            RECORD_USERNAME -> {
+                val uniqueId = input.readUTF()
+                val username = input.readUTF()
+                val status = BlockchainIdentity.UsernameStatus.valueOf(input.readUTF())
+                val salt = readBytes(input)
+                val createdAt = input.readLong()
+                val updatedAt = input.readLong()
+                apply(uniqueId, UsernameInfo(username, status, salt, createdAt, updatedAt))
+            }
+            else -> log.warn("skipping a journal record of unknown type")
+        }
+    }
+
+    private fun writeIdentity(output: DataOutputStream, record: IdentityRecord) {
+        output.writeByte(RECORD_IDENTITY.toInt())
+        output.writeUTF(record.uniqueId)
+        output.writeBoolean(record.isLocal)
+        output.writeUTF(record.type.name)
+        output.writeUTF(record.registrationStatus.name)
+        output.writeLong(record.creditBalance)
+        output.writeInt(record.index)
+        writeBytes(output, record.identityBytes)
+    }
+
+    private fun writeUsername(output: DataOutputStream, uniqueId: String, info: UsernameInfo) {
+        output.writeByte(RECORD_USERNAME.toInt())
+        output.writeUTF(uniqueId)
+        output.writeUTF(info.username)
+        output.writeUTF(info.status.name)
+        writeBytes(output, info.salt)
+        output.writeLong(info.createdAt)
+        output.writeLong(info.updatedAt)
+    }
+
+    private fun writeBytes(output: DataOutputStream, bytes: ByteArray?) {
+        if (bytes == null) {
+            output.writeInt(-1)
+        } else {
+            output.writeInt(bytes.size)
+            output.write(bytes)
+        }
+    }
+
+    private fun readBytes(input: DataInputStream): ByteArray? {
+        val length = input.readInt()
+        if (length < 0) {
+            return null
+        }
+        val bytes = ByteArray(length)
+        input.readFully(bytes)
+        return bytes
+    }
+
+    private fun encode(write: (DataOutputStream) -> Unit): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use(write)
+        return bytes.toByteArray()
+    }
+
+    private fun frame(output: ByteArrayOutputStream, payload: ByteArray) {
+        val crc = CRC32()
+        crc.update(payload)
+        val header = ByteBuffer.allocate(8).putInt(payload.size).putInt(crc.value.toInt())
+        output.write(header.array())
+        output.write(payload)
+    }
+
+    private fun writeFully(channel: FileChannel, bytes: ByteArray) {
+        val buffer = ByteBuffer.wrap(bytes)
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+    }
+}
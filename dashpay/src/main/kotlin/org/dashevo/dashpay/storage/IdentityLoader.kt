@@ -0,0 +1,111 @@
+package org.dashevo.dashpay.storage
+
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.evolution.CreditFundingTransaction
+import org.bitcoinj.wallet.Wallet
+import org.dashevo.dashpay.BlockchainIdentity
+import org.dashevo.dpp.identity.Identity
+import org.dashevo.platform.Platform
+import org.dashevo.platform.RateLimiter
+import org.slf4j.LoggerFactory
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+/**
+ * Restores the blockchain identities of a wallet from an [IdentityJournal] at startup.
+ *
+ * [load] rebuilds every saved identity, with its registration status, usernames, salts and
+ * Identity, from local disk in one pass and without a call to Platform. The saved state can be
+ * out of date, so [verify] checks it against Platform later on, in the background.
+ *
+ * All of the identities share [platform].
+ */
+class IdentityLoader @JvmOverloads constructor(
+    val journal: IdentityJournal,
+    val wallet: Wallet,
+    val platform: Platform = Platform(wallet.params)
+) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(IdentityLoader::class.java)
+    }
+
+    /**
+     * Restores the identities saved in the journal. Local identities whose credit funding
+     * transaction is no longer in the wallet are skipped. The journal is set on every identity.
+     */
+    fun load(): List<BlockchainIdentity> {
+        val fundingTransactions = HashMap<String, CreditFundingTransaction>()
+        for (transaction in wallet.getCreditFundingTransactions()) {
+            val uniqueId = Sha256Hash.twiceOf(transaction.lockedOutpoint.bitcoinSerialize())
+            fundingTransactions[uniqueId.toStringBase58()] = transaction
+        }
+
+        val identities = ArrayList<BlockchainIdentity>()
+        for (record in journal.identities()) {
+            val usernames = journal.usernames(record.uniqueId)
+            val blockchainIdentity = if (record.isLocal) {
+                val transaction = fundingTransactions[record.uniqueId]
+                if (transaction == null) {
+                    log.warn("the funding transaction of identity ${record.uniqueId} is not in the wallet")
+                    continue
+                }
+                BlockchainIdentity(transaction, record, usernames, wallet, platform)
+            } else {
+                BlockchainIdentity(record, usernames, wallet.params, platform)
+            }
+            blockchainIdentity.journal = journal
+            identities.add(blockchainIdentity)
+        }
+        return identities
+    }
+
+    /**
+     * Looks up [identities] on Platform in one [org.dashevo.platform.Identities.getMany] call at
+     * background priority and saves any change of registration status or Identity with a single
+     * journal commit. Lookups that fail leave the restored state as it is.
+     *
+     * A registered identity that is not found is only marked NOT_REGISTERED when a second lookup,
+     * which bypasses the identity cache, does not find it either. One missed lookup, such as from a
+     * node that is behind, does not undo a registration.
+     *
+     * @return a future that completes when every identity has been checked
+     */
+    fun verify(identities: List<BlockchainIdentity>, executor: Executor): CompletableFuture<Void> {
+        return CompletableFuture.runAsync(Runnable {
+            RateLimiter.withPriority(RateLimiter.RequestPriority.BACKGROUND) {
+                val result = platform.identities.getMany(identities.map { it.uniqueIdString })
+                val failures = result.failures.associateBy { it.id }
+                for (blockchainIdentity in identities) {
+                    val failure = failures[blockchainIdentity.uniqueIdString]
+                    if (failure != null) {
+                        log.info("could not verify identity ${failure.id}: ${failure.error.message}")
+                        continue
+                    }
+                    try {
+                        verify(blockchainIdentity, result.identities[blockchainIdentity.uniqueIdString])
+                    } catch (e: Exception) {
+                        log.info("could not verify identity ${blockchainIdentity.uniqueIdString}: ${e.message}")
+                    }
+                }
+            }
+            journal.commit()
+        }, executor)
+    }
+
+    private fun verify(blockchainIdentity: BlockchainIdentity, lookedUp: Identity?) {
+        var identity = lookedUp
+        if (identity == null && blockchainIdentity.registrationStatus == BlockchainIdentity.RegistrationStatus.REGISTERED) {
+            identity = platform.identities.fetch(blockchainIdentity.uniqueIdString)
+        }
+        if (identity != null) {
+            blockchainIdentity.identity = identity
+            blockchainIdentity.registrationStatus = BlockchainIdentity.RegistrationStatus.REGISTERED
+        } else {
+            // a registration that is still in progress is left alone
+            blockchainIdentity.compareAndSetRegistrationStatus(BlockchainIdentity.RegistrationStatus.REGISTERED,
+                BlockchainIdentity.RegistrationStatus.NOT_REGISTERED)
+        }
+        journal.saveIdentity(blockchainIdentity.toIdentityRecord(), false)
+    }
+}
@@ -0,0 +1,24 @@
+package org.dashevo.dashpay.storage
+
+import org.dashevo.dashpay.BlockchainIdentity
+import org.dashevo.dpp.identity.Identity
+
+/**
+ * The persisted state of a blockchain identity, apart from its usernames
+ *
+ * @property identityBytes ByteArray? the CBOR encoded identity as last fetched from Platform
+ */
+class IdentityRecord(
+    val uniqueId: String,
+    val isLocal: Boolean,
+    val type: Identity.IdentityType,
+    val registrationStatus: BlockchainIdentity.RegistrationStatus,
+    val creditBalance: Long,
+    val index: Int,
+    val identityBytes: ByteArray?
+) {
+    override fun toString(): String {
+        return "IdentityRecord(uniqueId=$uniqueId, isLocal=$isLocal, type=$type, " +
+                "registrationStatus=$registrationStatus, creditBalance=$creditBalance, index=$index)"
+    }
+}
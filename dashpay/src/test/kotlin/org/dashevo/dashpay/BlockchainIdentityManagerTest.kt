@@ -0,0 +1,93 @@
+package org.dashevo.dashpay
+
+import org.bitcoinj.core.Base58
+import org.bitcoinj.params.EvoNetParams
+import org.bitcoinj.wallet.Wallet
+import org.dashevo.dashpay.BlockchainIdentity.RegistrationStatus
+import org.dashevo.dashpay.BlockchainIdentity.UsernameStatus
+import org.dashevo.dashpay.callback.IdentityStateListener
+import org.dashevo.dashpay.storage.IdentityRecord
+import org.dashevo.dpp.identity.Identity
+import org.dashevo.platform.Platform
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+class BlockchainIdentityManagerTest {
+
+    private val params = EvoNetParams.get()
+    private val platform = Platform(params)
+
+    private fun identity(seed: Int, vararg usernames: String): BlockchainIdentity {
+        val uniqueId = Base58.encode(ByteArray(32) { (seed + it).toByte() })
+        val record = IdentityRecord(uniqueId, false, Identity.IdentityType.USER, RegistrationStatus.REGISTERED, 0, 0, null)
+        return BlockchainIdentity(record, usernames.map { UsernameInfo(it, UsernameStatus.CONFIRMED, null) }, params, platform)
+    }
+
+    @Test
+    fun getByUsernameTest() {
+        BlockchainIdentityManager(Wallet(params), platform).use { manager ->
+            val alice = identity(1, "Alice")
+            val bob = identity(2, "bob", "bobby")
+            manager.add(alice)
+            manager.add(bob)
+
+            assertSame(alice, manager.getByUsername("alice"))
+            assertSame(alice, manager.getByUsername("ALICE"))
+            assertSame(bob, manager.getByUsername("bobby"))
+            assertSame(bob, manager[bob.uniqueIdString])
+            assertNull(manager.getByUsername("carol"))
+
+            // the index is not cleaned up, but a username that was removed is not found
+            bob.usernameStore.remove("bobby")
+            assertNull(manager.getByUsername("bobby"))
+            assertSame(bob, manager.getByUsername("bob"))
+
+            manager.remove(alice.uniqueIdentifier)
+            assertNull(manager.getByUsername("alice"))
+            assertNull(manager[alice.uniqueIdentifier])
+        }
+    }
+
+    @Test
+    fun indexFollowsEventsTest() {
+        BlockchainIdentityManager(Wallet(params), platform).use { manager ->
+            val alice = identity(1, "alice")
+            alice.events.coalesceMillis = 0
+            manager.add(alice)
+
+            // a username added after the identity is indexed once the change is reported
+            alice.usernameStore.setStatus("alice2", UsernameStatus.INITIAL)
+            val deadline = System.currentTimeMillis() + 5000
+            while (manager.getByUsername("alice2") == null) {
+                assertTrue(System.currentTimeMillis() < deadline, "the new username should be indexed")
+                Thread.sleep(1)
+            }
+            assertSame(alice, manager.getByUsername("alice2"))
+        }
+    }
+
+    @Test
+    fun eventsOnManagerPoolTest() {
+        BlockchainIdentityManager(Wallet(params), platform).use { manager ->
+            val alice = identity(1, "alice")
+            manager.add(alice)
+
+            val thread = CompletableFuture<String>()
+            alice.events.addListener(object : IdentityStateListener {
+                override fun onStateChanged(update: IdentityStateUpdate) {
+                    thread.complete(Thread.currentThread().name)
+                }
+            })
+            assertEquals("BlockchainIdentityManager", thread.get(5, TimeUnit.SECONDS))
+
+            // a removed identity goes back to the shared thread
+            manager.remove(alice.uniqueIdentifier)
+            assertNull(alice.events.executor)
+        }
+    }
+}
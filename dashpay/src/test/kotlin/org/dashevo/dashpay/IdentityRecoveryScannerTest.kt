@@ -0,0 +1,64 @@
+package org.dashevo.dashpay
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class IdentityRecoveryScannerTest {
+
+    private class Funding(val index: Int, val uniqueId: String)
+
+    @Test
+    fun candidateOrderTest() {
+        val transactions = listOf(Funding(5, "e"), Funding(0, "a"), Funding(30, "f"), Funding(2, "c"),
+            Funding(0, "b"), Funding(2, "c"))
+
+        val candidates = IdentityRecoveryScanner.candidateOrder(transactions, { it.index }, { it.uniqueId })
+
+        // every transaction is kept, however far past the others its key is, and ordered by key index
+        assertEquals(listOf("a", "b", "c", "e", "f"), candidates.map { it.uniqueId })
+        assertEquals(listOf(0, 0, 2, 5, 30), candidates.map { it.index })
+    }
+
+    @Test
+    fun emptyWalletTest() {
+        assertEquals(listOf<Funding>(), IdentityRecoveryScanner.candidateOrder(listOf<Funding>(), { it.index }, { it.uniqueId }))
+    }
+
+    @Test
+    fun checkTest() {
+        val candidates = listOf(Funding(0, "a"), Funding(1, "b"), Funding(2, "c"), Funding(3, "d"))
+        val failure = IllegalStateException("unavailable")
+        // each lookup waits for all of them to start, which only happens if they run in parallel
+        val started = CountDownLatch(candidates.size)
+
+        val (found, failures) = IdentityRecoveryScanner.check(candidates, candidates.size, { it.uniqueId }, { candidate ->
+            started.countDown()
+            assertTrue(started.await(5, TimeUnit.SECONDS), "the lookups should run in parallel")
+            when (candidate.uniqueId) {
+                "b" -> throw failure
+                "c" -> null
+                else -> candidate.uniqueId.toUpperCase()
+            }
+        }, { candidate, identity -> "${candidate.index}:$identity" })
+
+        // the hits are materialized in candidate order, a missing identity is neither a hit nor a failure
+        assertEquals(listOf("0:A", "3:D"), found)
+        assertEquals(setOf("b"), failures.keys)
+        assertSame(failure, failures["b"])
+    }
+
+    @Test
+    fun materializeFailureTest() {
+        val failure = IllegalArgumentException("bad identity")
+
+        val (found, failures) = IdentityRecoveryScanner.check(listOf(Funding(0, "a"), Funding(1, "b")), 1, { it.uniqueId },
+            { it.uniqueId }, { candidate, identity -> if (candidate.index == 0) throw failure else identity })
+
+        assertEquals(listOf("b"), found)
+        assertSame(failure, failures["a"])
+    }
+}
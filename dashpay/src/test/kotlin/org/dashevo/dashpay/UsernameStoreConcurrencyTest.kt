@@ -0,0 +1,130 @@
+package org.dashevo.dashpay
+
+import org.dashevo.dashpay.BlockchainIdentity.UsernameStatus
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+class UsernameStoreConcurrencyTest {
+
+    private val steps = listOf(
+        UsernameStatus.INITIAL,
+        UsernameStatus.PREORDER_REGISTRATION_PENDING,
+        UsernameStatus.PREORDERED,
+        UsernameStatus.REGISTRATION_PENDING,
+        UsernameStatus.CONFIRMED
+    )
+
+    private fun runThreads(count: Int, body: (Int) -> Unit): List<Throwable> {
+        val errors = ConcurrentLinkedQueue<Throwable>()
+        val barrier = CyclicBarrier(count)
+        val threads = (0 until count).map { t ->
+            Thread {
+                try {
+                    barrier.await()
+                    body(t)
+                } catch (e: Throwable) {
+                    errors.add(e)
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        return errors.toList()
+    }
+
+    @Test
+    fun transitionsHappenOnceTest() {
+        val usernames = (0 until 200).map { "name$it" }
+        val store = UsernameStore()
+        usernames.forEach { store.setStatus(it, UsernameStatus.INITIAL) }
+
+        // every thread races to move every username through each step, only one may win each step
+        val transitions = AtomicInteger()
+        val errors = runThreads(8) {
+            for (i in 1 until steps.size) {
+                for (username in usernames) {
+                    if (store.compareAndSetStatus(username, steps[i - 1], steps[i])) {
+                        transitions.incrementAndGet()
+                    }
+                }
+            }
+        }
+
+        assertTrue(errors.isEmpty(), errors.toString())
+        assertEquals(usernames.size * (steps.size - 1), transitions.get())
+        assertEquals(usernames.toSet(), store.usernamesWithStatus(UsernameStatus.CONFIRMED).toSet())
+        for (status in steps.dropLast(1)) {
+            assertEquals(0, store.countWithStatus(status), "$status")
+        }
+    }
+
+    @Test
+    fun readersSeeConsistentStateTest() {
+        val store = UsernameStore()
+        val running = AtomicBoolean(true)
+        val writers = 4
+        val namesPerWriter = 500
+
+        val errors = runThreads(writers + 4) { t ->
+            if (t < writers) {
+                for (i in 0 until namesPerWriter) {
+                    val username = "writer$t-$i"
+                    store.setStatus(username, UsernameStatus.INITIAL)
+                    store.setSalt(username, byteArrayOf(t.toByte(), i.toByte()))
+                    store.compareAndSetStatus(username, UsernameStatus.INITIAL, UsernameStatus.PREORDERED)
+                    if (i % 3 == 0) {
+                        store.remove(username)
+                    }
+                }
+                if (t == 0) {
+                    Thread.sleep(50)
+                    running.set(false)
+                }
+            } else {
+                while (running.get()) {
+                    // reading while the writers change the store must never fail or see a stray status
+                    store.toMap()
+                    store.usernamesWithStatus(UsernameStatus.INITIAL)
+                    for (username in store.usernamesWithStatus(UsernameStatus.PREORDERED)) {
+                        val status = store.statusOf(username)
+                        assertTrue(status == UsernameStatus.PREORDERED || status == UsernameStatus.NOT_PRESENT, "$status")
+                    }
+                }
+            }
+        }
+
+        assertTrue(errors.isEmpty(), errors.toString())
+        val expected = writers * (namesPerWriter - (namesPerWriter + 2) / 3)
+        assertEquals(expected, store.size)
+        assertEquals(expected, store.countWithStatus(UsernameStatus.PREORDERED))
+        assertEquals(0, store.countWithStatus(UsernameStatus.INITIAL))
+        assertEquals(store.usernames().toSet(), store.usernamesWithStatus(UsernameStatus.PREORDERED).toSet())
+        for (username in store.usernames()) {
+            assertTrue(store.saltOf(username) != null, username)
+        }
+    }
+
+    @Test
+    fun saltOrCreateOnceTest() {
+        val store = UsernameStore()
+        store.setStatus("alice", UsernameStatus.PREORDERED)
+        val created = AtomicInteger()
+        val salts = ConcurrentLinkedQueue<ByteArray>()
+        val errors = runThreads(8) { t ->
+            salts.add(store.saltOrCreate("alice") {
+                created.incrementAndGet()
+                byteArrayOf(t.toByte())
+            })
+        }
+        assertTrue(errors.isEmpty(), errors.toString())
+        // every caller sees the salt of the one that won
+        assertEquals(1, salts.map { it.toList() }.toSet().size)
+        assertTrue(store.saltOf("alice")!!.contentEquals(salts.first()))
+        assertTrue(created.get() >= 1)
+    }
+}
@@ -0,0 +1,126 @@
+package org.dashevo.dashpay
+
+import org.dashevo.dashpay.BlockchainIdentity.Companion.BLOCKCHAIN_USERNAME_SALT
+import org.dashevo.dashpay.BlockchainIdentity.Companion.BLOCKCHAIN_USERNAME_STATUS
+import org.dashevo.dashpay.BlockchainIdentity.UsernameStatus
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class UsernameStoreTest {
+
+    @Test
+    fun statusIndexTest() {
+        val store = UsernameStore()
+        store.setStatus("alice", UsernameStatus.INITIAL)
+        store.setStatus("bob", UsernameStatus.INITIAL)
+        store.setStatus("carol", UsernameStatus.PREORDERED)
+
+        assertEquals(listOf("alice", "bob"), store.usernamesWithStatus(UsernameStatus.INITIAL))
+        assertEquals(listOf("carol"), store.usernamesWithStatus(UsernameStatus.PREORDERED))
+
+        store.setStatus("alice", UsernameStatus.PREORDERED)
+        assertEquals(listOf("bob"), store.usernamesWithStatus(UsernameStatus.INITIAL))
+        assertEquals(setOf("alice", "carol"), store.usernamesWithStatus(UsernameStatus.PREORDERED).toSet())
+        assertEquals(UsernameStatus.PREORDERED, store.statusOf("alice"))
+        assertEquals(UsernameStatus.NOT_PRESENT, store.statusOf("dave"))
+
+        store.remove("carol")
+        assertEquals(listOf("alice"), store.usernamesWithStatus(UsernameStatus.PREORDERED))
+        assertEquals(2, store.size)
+    }
+
+    @Test
+    fun saltOnlyRecordTest() {
+        val store = UsernameStore()
+        val salt = byteArrayOf(1, 2, 3)
+        store.setSalt("alice", salt)
+
+        assertFalse("alice" in store)
+        assertTrue(store.usernames().isEmpty())
+        assertArrayEquals(salt, store.saltOf("alice"))
+
+        val created = store["alice"]!!.createdAt
+        store.setStatus("alice", UsernameStatus.INITIAL)
+        assertTrue("alice" in store)
+        assertArrayEquals(salt, store.saltOf("alice"))
+        assertEquals(created, store["alice"]!!.createdAt)
+    }
+
+    @Test
+    fun putAllTest() {
+        val store = UsernameStore()
+        store.setStatus("alice", UsernameStatus.INITIAL)
+        val changed = ArrayList<String>()
+        store.changeListener = { changed.add(it) }
+
+        store.putAll(listOf(
+            UsernameInfo("alice", UsernameStatus.PREORDERED, null),
+            UsernameInfo("bob", UsernameStatus.INITIAL, byteArrayOf(1)),
+            UsernameInfo("carol", UsernameStatus.PREORDERED, null)
+        ))
+
+        assertEquals(listOf("bob"), store.usernamesWithStatus(UsernameStatus.INITIAL))
+        assertEquals(listOf("alice", "carol"), store.usernamesWithStatus(UsernameStatus.PREORDERED))
+        assertEquals(3, store.size)
+        assertEquals(listOf("alice", "bob", "carol"), changed)
+
+        // a record that keeps its status does not notify
+        changed.clear()
+        store.putAll(listOf(UsernameInfo("bob", UsernameStatus.INITIAL, byteArrayOf(2))))
+        assertTrue(changed.isEmpty())
+        assertArrayEquals(byteArrayOf(2), store.saltOf("bob"))
+    }
+
+    @Test
+    fun saltOrCreateTest() {
+        val store = UsernameStore()
+        val first = store.saltOrCreate("alice") { byteArrayOf(1) }
+        assertArrayEquals(byteArrayOf(1), first)
+        assertFalse("alice" in store)
+
+        store.setStatus("alice", UsernameStatus.PREORDERED)
+        assertTrue(first === store.saltOrCreate("alice") { byteArrayOf(2) })
+
+        // an INITIAL username gets a new salt, as saltForUsername always did
+        store.setStatus("alice", UsernameStatus.INITIAL)
+        assertArrayEquals(byteArrayOf(3), store.saltOrCreate("alice") { byteArrayOf(3) })
+    }
+
+    @Test
+    fun legacyMapTest() {
+        val salt = byteArrayOf(4, 5, 6)
+        val store = UsernameStore()
+        store.put("alice", UsernameStatus.CONFIRMED, salt)
+        store.setStatus("bob", UsernameStatus.INITIAL)
+
+        val map = store.toMap()
+        assertEquals(UsernameStatus.CONFIRMED, (map["alice"] as Map<*, *>)[BLOCKCHAIN_USERNAME_STATUS])
+        assertArrayEquals(salt, (map["alice"] as Map<*, *>)[BLOCKCHAIN_USERNAME_SALT] as ByteArray)
+
+        val restored = UsernameStore()
+        restored.putAll(map)
+        assertEquals(UsernameStatus.CONFIRMED, restored.statusOf("alice"))
+        assertEquals(UsernameStatus.INITIAL, restored.statusOf("bob"))
+        assertArrayEquals(salt, restored.saltOf("alice"))
+    }
+
+    @Test
+    fun copyTest() {
+        val store = UsernameStore()
+        store.setStatus("alice", UsernameStatus.INITIAL)
+        val copy = store.copy()
+
+        copy.setStatus("alice", UsernameStatus.PREORDERED)
+        copy.setStatus("bob", UsernameStatus.INITIAL)
+        assertEquals(UsernameStatus.INITIAL, store.statusOf("alice"))
+        assertEquals(listOf("alice"), store.usernamesWithStatus(UsernameStatus.INITIAL))
+        assertFalse("bob" in store)
+
+        store.remove("alice")
+        assertEquals(UsernameStatus.PREORDERED, copy.statusOf("alice"))
+        assertEquals(2, copy.size)
+    }
+}
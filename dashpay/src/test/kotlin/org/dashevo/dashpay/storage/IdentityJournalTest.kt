@@ -0,0 +1,107 @@
+package org.dashevo.dashpay.storage
+
+import org.dashevo.dashpay.BlockchainIdentity.RegistrationStatus
+import org.dashevo.dashpay.BlockchainIdentity.UsernameStatus
+import org.dashevo.dashpay.UsernameInfo
+import org.dashevo.dpp.identity.Identity
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+
+class IdentityJournalTest {
+
+    private lateinit var directory: File
+
+    @BeforeEach
+    fun createDirectory() {
+        directory = Files.createTempDirectory("journal").toFile()
+    }
+
+    @AfterEach
+    fun deleteDirectory() {
+        directory.deleteRecursively()
+    }
+
+    private fun record(uniqueId: String, status: RegistrationStatus) =
+        IdentityRecord(uniqueId, true, Identity.IdentityType.USER, status, 1000L, 0, byteArrayOf(1, 2, 3))
+
+    @Test
+    fun reopenTest() {
+        IdentityJournal(directory).use { journal ->
+            journal.saveIdentity(record("id1", RegistrationStatus.REGISTERING))
+            journal.saveUsername("id1", UsernameInfo("alice", UsernameStatus.INITIAL, byteArrayOf(9)), false)
+            journal.saveUsername("id1", UsernameInfo("bob", UsernameStatus.INITIAL, null), false)
+            journal.saveUsername("id1", UsernameInfo("alice", UsernameStatus.PREORDERED, byteArrayOf(9)), false)
+            journal.commit()
+            journal.saveIdentity(record("id1", RegistrationStatus.REGISTERED))
+        }
+
+        IdentityJournal(directory).use { journal ->
+            assertEquals(RegistrationStatus.REGISTERED, journal.identity("id1")!!.registrationStatus)
+            assertArrayEquals(byteArrayOf(1, 2, 3), journal.identity("id1")!!.identityBytes)
+            val usernames = journal.usernames("id1").associateBy { it.username }
+            assertEquals(UsernameStatus.PREORDERED, usernames["alice"]!!.status)
+            assertArrayEquals(byteArrayOf(9), usernames["alice"]!!.salt)
+            assertEquals(UsernameStatus.INITIAL, usernames["bob"]!!.status)
+        }
+    }
+
+    @Test
+    fun tornRecordTest() {
+        IdentityJournal(directory).use { journal ->
+            journal.saveIdentity(record("id1", RegistrationStatus.REGISTERED))
+            journal.saveIdentity(record("id2", RegistrationStatus.REGISTERED))
+        }
+        val journalFile = File(directory, IdentityJournal.JOURNAL_FILE)
+        RandomAccessFile(journalFile, "rw").use { it.setLength(it.length() - 5) }
+
+        IdentityJournal(directory).use { journal ->
+            assertEquals(listOf("id1"), journal.identities().map { it.uniqueId })
+            journal.saveIdentity(record("id3", RegistrationStatus.REGISTERED))
+        }
+        IdentityJournal(directory).use { journal ->
+            assertEquals(listOf("id1", "id3"), journal.identities().map { it.uniqueId })
+        }
+    }
+
+    @Test
+    fun compactionTest() {
+        IdentityJournal(directory, 10).use { journal ->
+            for (i in 0 until 25) {
+                journal.saveUsername("id1", UsernameInfo("name$i", UsernameStatus.INITIAL, null))
+            }
+        }
+        assertTrue(File(directory, IdentityJournal.SNAPSHOT_FILE).exists())
+        assertTrue(File(directory, IdentityJournal.JOURNAL_FILE).length() < 10 * 40)
+
+        IdentityJournal(directory).use { journal ->
+            assertEquals(25, journal.usernames("id1").size)
+        }
+    }
+
+    @Test
+    fun concurrentCommitTest() {
+        IdentityJournal(directory).use { journal ->
+            val threads = (0 until 8).map { t ->
+                Thread {
+                    for (i in 0 until 50) {
+                        journal.saveUsername("id$t", UsernameInfo("name$i", UsernameStatus.INITIAL, null))
+                    }
+                }
+            }
+            threads.forEach { it.start() }
+            threads.forEach { it.join() }
+        }
+        IdentityJournal(directory).use { journal ->
+            for (t in 0 until 8) {
+                assertEquals(50, journal.usernames("id$t").size)
+            }
+        }
+    }
+}
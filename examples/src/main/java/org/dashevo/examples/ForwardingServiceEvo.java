@@ -46,9 +46,9 @@ import org.bitcoinj.wallet.AuthenticationKeyChain;
 import org.bitcoinj.wallet.SendRequest;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
+import org.dashevo.dashpay.AsyncBlockchainIdentity;
 import org.dashevo.dashpay.BlockchainIdentity;
 import org.dashevo.dashpay.callback.RegisterIdentityCallback;
-import org.dashevo.dashpay.callback.RegisterNameCallback;
 import org.dashevo.dashpay.callback.RegisterPreorderCallback;
 import org.dashevo.platform.Platform;
 import org.dashevo.dapiclient.model.DocumentQuery;
@@ -62,6 +62,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.Thread.sleep;
@@ -75,6 +77,7 @@ public class ForwardingServiceEvo {
     private static WalletAppKit kit;
     private static Platform platform;
     private static BlockchainIdentity blockchainIdentity;
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
 
     public static void main(String[] args) throws Exception {
         // This line makes the log output more compact and easily read, especially when using the JDK log adapter.
@@ -248,19 +251,15 @@ public class ForwardingServiceEvo {
 
             List<String> names = ImmutableList.of("test1", "test2");
 
-            blockchainIdentity.monitorForDPNSUsernames(names, 10, 1000, BlockchainIdentity.RetryDelayType.LINEAR,
-                    new RegisterNameCallback() {
-                        @Override
-                        public void onComplete(@NotNull List<String> uniqueId) {
+            new AsyncBlockchainIdentity(blockchainIdentity, executor)
+                    .monitorForDPNSUsernames(names, 10, 1000, BlockchainIdentity.RetryDelayType.LINEAR)
+                    .whenComplete((found, error) -> {
+                        if (error == null) {
                             System.out.println("names created and found");
-                        }
-
-                        @Override
-                        public void onTimeout(@NotNull List<String> uniqueId) {
+                        } else {
                             System.out.println("names were not created:");
                         }
-                    }
-            );
+                    });
 
             System.out.println("blockchainIdentity: " + blockchainIdentity.getUniqueIdString());
         }
@@ -438,17 +437,15 @@ public class ForwardingServiceEvo {
                 @Override
                 public void onComplete(@NotNull List<String> names) {
                     lastBlockchainIdentity.registerUsernameDomainsForUsernames(set);
-                    lastBlockchainIdentity.monitorForDPNSUsernames(set, 10, 1000, BlockchainIdentity.RetryDelayType.LINEAR, new RegisterNameCallback() {
-                        @Override
-                        public void onComplete(@NotNull List<String> names) {
-                            System.out.println("Name Register Complete: " + names);
-                        }
-
-                        @Override
-                        public void onTimeout(@NotNull List<String> incompleteNames) {
-                            System.out.println("Name Register Timeout: " + names);
-                        }
-                    });
+                    new AsyncBlockchainIdentity(lastBlockchainIdentity, executor)
+                            .monitorForDPNSUsernames(set, 10, 1000, BlockchainIdentity.RetryDelayType.LINEAR)
+                            .whenComplete((found, error) -> {
+                                if (error == null) {
+                                    System.out.println("Name Register Complete: " + found);
+                                } else {
+                                    System.out.println("Name Register Timeout: " + names);
+                                }
+                            });
                 }
 
                 @Override
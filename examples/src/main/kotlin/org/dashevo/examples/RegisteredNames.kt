@@ -1,8 +1,7 @@
 package org.dashevo.examples
 
 import org.dashevo.Client
-import org.dashevo.dapiclient.model.DocumentQuery
-import org.dashevo.dpp.document.Document
+import org.dashevo.platform.DocumentProjection
 
 class RegisteredNames {
     companion object {
@@ -17,30 +16,19 @@ class RegisteredNames {
             val platform = sdk.platform
             sdk.isReady();
 
-            var startAt = 0
-            var documents: List<Document>? = null
-            var requests = 0
-            do {
-                val queryOpts = DocumentQuery.Builder().startAt(startAt).build()
-                println(queryOpts.toJSON())
+            // only the printed fields are decoded
+            val projection = DocumentProjection("label", "normalizedParentDomainName", "\$userId")
 
-                try {
-                    documents = platform.documents.get("dpns.domain", queryOpts)
-
-                    requests += 1;
-
-                    for (doc in documents) {
-                        println("Name: " + doc.data["label"] +
-                                " (domain: " + doc.data["normalizedParentDomainName"] +
-                                ") Identity: " + doc.userId)
-                    }
-
-                    startAt += 100;
-                } catch (e: Exception) {
-                    println("\nError retrieving results (startAt =  $startAt)")
-                    println(e.message);
+            try {
+                for (doc in platform.documents.scan("dpns.domain", projection)) {
+                    println("Name: " + doc["label"] +
+                            " (domain: " + doc["normalizedParentDomainName"] +
+                            ") Identity: " + doc.userId)
                 }
-            } while (requests == 0 || documents!!.size >= 100);
+            } catch (e: Exception) {
+                println("\nError retrieving results")
+                println(e.message);
+            }
         }
     }
-}
\ No newline at end of file
+}
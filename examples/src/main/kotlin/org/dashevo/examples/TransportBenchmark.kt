@@ -0,0 +1,157 @@
+package org.dashevo.examples
+
+import com.google.common.io.ByteStreams
+import io.grpc.CallOptions
+import io.grpc.ManagedChannel
+import io.grpc.MethodDescriptor
+import io.grpc.Server
+import io.grpc.ServerServiceDefinition
+import io.grpc.netty.NettyChannelBuilder
+import io.grpc.netty.NettyServerBuilder
+import io.grpc.okhttp.OkHttpChannelBuilder
+import io.grpc.stub.ClientCalls
+import io.grpc.stub.ServerCalls
+import io.netty.channel.epoll.Epoll
+import io.netty.channel.epoll.EpollEventLoopGroup
+import io.netty.channel.epoll.EpollSocketChannel
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Compares the throughput and latency of getDocuments calls over the OkHttp and Netty gRPC
+ * transports against a local stand-in for the DAPI Platform service.
+ *
+ * Usage: TransportBenchmark [threads] [seconds] [documents per response]
+ */
+class TransportBenchmark {
+    companion object {
+        private const val PLATFORM_SERVICE = "org.dash.platform.dapi.v0.Platform"
+        private const val DOCUMENT_SIZE = 300
+
+        private val bytesMarshaller = object : MethodDescriptor.Marshaller<ByteArray> {
+            override fun stream(value: ByteArray): InputStream {
+                return ByteArrayInputStream(value)
+            }
+
+            override fun parse(stream: InputStream): ByteArray {
+                return ByteStreams.toByteArray(stream)
+            }
+        }
+
+        private val getDocuments = MethodDescriptor.newBuilder<ByteArray, ByteArray>()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName(PLATFORM_SERVICE, "getDocuments"))
+            .setRequestMarshaller(bytesMarshaller)
+            .setResponseMarshaller(bytesMarshaller)
+            .build()
+
+        enum class Transport {
+            OKHTTP,
+            NETTY
+        }
+
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val threads = if (args.isNotEmpty()) args[0].toInt() else 16
+            val seconds = if (args.size > 1) args[1].toInt() else 10
+            val documentCount = if (args.size > 2) args[2].toInt() else 100
+
+            val response = ByteArray(documentCount * DOCUMENT_SIZE)
+            Random(0).nextBytes(response)
+            val server = startServer(response)
+            println("stand-in server on port ${server.port}: $documentCount documents (${response.size} bytes) per response")
+            println("epoll available: ${Epoll.isAvailable()}")
+            println("runtime: ${System.getProperty("java.vm.name")} ${System.getProperty("java.version")}, " +
+                    "$threads threads, $seconds s per transport")
+            val epollGroup = if (Epoll.isAvailable()) EpollEventLoopGroup() else null
+
+            try {
+                for (transport in Transport.values()) {
+                    val channel = createChannel(transport, server.port, epollGroup)
+                    try {
+                        // warm up the connection, the JIT and the buffer pools
+                        run(channel, threads, 2)
+                        val result = run(channel, threads, seconds)
+                        println("$transport: $result")
+                    } finally {
+                        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+                    }
+                }
+            } finally {
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+                epollGroup?.shutdownGracefully(0, 5, TimeUnit.SECONDS)
+            }
+        }
+
+        private fun startServer(response: ByteArray): Server {
+            val service = ServerServiceDefinition.builder(PLATFORM_SERVICE)
+                .addMethod(getDocuments, ServerCalls.asyncUnaryCall<ByteArray, ByteArray> { _, observer ->
+                    observer.onNext(response)
+                    observer.onCompleted()
+                })
+                .build()
+            return NettyServerBuilder.forPort(0).addService(service).build().start()
+        }
+
+        private fun createChannel(transport: Transport, port: Int, epollGroup: EpollEventLoopGroup?): ManagedChannel {
+            return when (transport) {
+                Transport.OKHTTP -> OkHttpChannelBuilder.forAddress("localhost", port).usePlaintext().build()
+                Transport.NETTY -> {
+                    val builder = NettyChannelBuilder.forAddress("localhost", port).usePlaintext()
+                    if (epollGroup != null) {
+                        builder.channelType(EpollSocketChannel::class.java).eventLoopGroup(epollGroup)
+                    }
+                    builder.build()
+                }
+            }
+        }
+
+        private class Result(val calls: Int, val seconds: Int, val latenciesMicros: LongArray) {
+            override fun toString(): String {
+                Arrays.sort(latenciesMicros)
+                fun percentile(p: Double) = if (latenciesMicros.isEmpty()) 0
+                    else latenciesMicros[Math.min(latenciesMicros.size - 1, (latenciesMicros.size * p).toInt())]
+                return "${calls / seconds} calls/s, latency p50 ${percentile(0.50)} us, " +
+                        "p99 ${percentile(0.99)} us, max ${percentile(1.0)} us"
+            }
+        }
+
+        private fun run(channel: ManagedChannel, threads: Int, seconds: Int): Result {
+            val request = ByteArray(64)
+            val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds.toLong())
+            val latencies = Array(threads) { LongArray(1024) }
+            val counts = IntArray(threads)
+            val done = CountDownLatch(threads)
+
+            for (t in 0 until threads) {
+                thread(name = "benchmark-$t") {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            val start = System.nanoTime()
+                            ClientCalls.blockingUnaryCall(channel, getDocuments, CallOptions.DEFAULT, request)
+                            if (counts[t] == latencies[t].size) {
+                                latencies[t] = latencies[t].copyOf(latencies[t].size * 2)
+                            }
+                            latencies[t][counts[t]++] = (System.nanoTime() - start) / 1000
+                        }
+                    } finally {
+                        done.countDown()
+                    }
+                }
+            }
+            done.await()
+
+            val all = LongArray(counts.sum())
+            var offset = 0
+            for (t in 0 until threads) {
+                System.arraycopy(latencies[t], 0, all, offset, counts[t])
+                offset += counts[t]
+            }
+            return Result(all.size, seconds, all)
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.dashevo.platform
+
+import org.bitcoinj.core.Sha256Hash
+import org.openjdk.jmh.annotations.*
+import java.io.ByteArrayOutputStream
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares [DpnsHashEngine] with the ByteArrayOutputStream and Sha256Hash based code that
+ * Names used before, for single names and for a batch of preorders.
+ *
+ * Run with: ./gradlew :platform-core:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class DpnsHashBenchmark {
+    @Param("1000")
+    var batchSize: Int = 0
+
+    lateinit var names: List<String>
+    lateinit var salts: List<ByteArray>
+    lateinit var out: ByteArray
+
+    @Setup
+    fun setup() {
+        val random = Random(0)
+        names = (0 until batchSize).map { "HashEngineering$it" }
+        salts = names.map { ByteArray(25).also { salt -> random.nextBytes(salt) } }
+        out = ByteArray(batchSize * DpnsHashEngine.HASH_LENGTH)
+    }
+
+    private fun legacyNameHash(name: String): Sha256Hash {
+        val (normalizedParentDomainName, normalizedLabel) = Names.normalizeName(name)
+        val fullDomainName = "$normalizedLabel.$normalizedParentDomainName"
+        return Sha256Hash.twiceOf(fullDomainName.toByteArray())
+    }
+
+    private fun legacySaltedDomainHash(preOrderSaltRaw: ByteArray, nameHash: Sha256Hash): Sha256Hash {
+        val baos = ByteArrayOutputStream(preOrderSaltRaw.size + nameHash.bytes.size)
+        baos.write(preOrderSaltRaw)
+        baos.write(0x56)
+        baos.write(0x20)
+        baos.write(nameHash.bytes)
+
+        return Sha256Hash.twiceOf(baos.toByteArray())
+    }
+
+    @Benchmark
+    fun legacySingle(): ByteArray {
+        return legacySaltedDomainHash(salts[0], legacyNameHash(names[0])).bytes
+    }
+
+    @Benchmark
+    fun engineSingle(): ByteArray {
+        DpnsHashEngine.saltedDomainHashForName(salts[0], names[0], out, 0)
+        return out
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    fun legacyBatch(): ByteArray {
+        for (i in names.indices) {
+            val hash = legacySaltedDomainHash(salts[i], legacyNameHash(names[i])).bytes
+            System.arraycopy(hash, 0, out, i * DpnsHashEngine.HASH_LENGTH, DpnsHashEngine.HASH_LENGTH)
+        }
+        return out
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    fun engineBatch(): ByteArray {
+        return DpnsHashEngine.saltedDomainHashes(salts, names, out)
+    }
+}
@@ -0,0 +1,88 @@
+package org.dashevo.platform
+
+import io.grpc.Context
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.evolution.CreditFundingTransaction
+import org.dashevo.dapiclient.model.DocumentQuery
+import org.dashevo.dpp.contract.Contract
+import org.dashevo.dpp.document.Document
+import org.dashevo.dpp.identity.Identity
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+/**
+ * [CompletableFuture] versions of the [Platform] facades for Java callers.
+ *
+ * Each call runs on [executor]. Cancelling a returned future cancels the gRPC call behind it, or
+ * skips the call if it has not started yet, and when [timeoutMillis] is set every call fails with
+ * DEADLINE_EXCEEDED once it has run that long, not counting the time it waited for a thread.
+ *
+ * @property platform Platform
+ * @property executor Executor that runs the blocking DAPI calls
+ */
+class AsyncPlatform(val platform: Platform, val executor: Executor) {
+
+    /** The deadline applied to each call in milliseconds, 0 for none */
+    var timeoutMillis: Long = 0
+
+    fun getContract(identifier: String): CompletableFuture<Contract?> {
+        return call { context -> platform.contracts.get(identifier, context) }
+    }
+
+    fun getDocuments(typeLocator: String, opts: DocumentQuery): CompletableFuture<List<Document>> {
+        return call { context -> platform.documents.get(typeLocator, opts, context) }
+    }
+
+    fun getIdentity(id: String): CompletableFuture<Identity?> {
+        return call { context -> platform.identities.get(id, context) }
+    }
+
+    fun getIdentities(ids: Collection<String>): CompletableFuture<Identities.BulkResult> {
+        return call { context -> platform.identities.getMany(ids, context = context) }
+    }
+
+    fun registerIdentity(identityType: Identity.IdentityType, signedLockTransaction: CreditFundingTransaction): CompletableFuture<String> {
+        return call { context -> context.run { platform.identities.register(identityType, signedLockTransaction) } }
+    }
+
+    @JvmOverloads
+    fun getName(name: String, parentDomain: String = Names.DEFAULT_PARENT_DOMAIN): CompletableFuture<Document?> {
+        return call { context -> platform.names.get(name, parentDomain, context) }
+    }
+
+    fun preorderName(name: String, identity: Identity, identityHDPrivateKey: ECKey, preorderSaltBase58: String): CompletableFuture<Document?> {
+        return call { context -> context.run { platform.names.preorder(name, identity, identityHDPrivateKey, preorderSaltBase58) } }
+    }
+
+    fun registerName(name: String, identity: Identity, identityHDPrivateKey: ECKey, preorderSaltBase58: String, preorder: Document): CompletableFuture<Document?> {
+        return call { context ->
+            context.run { platform.names.registerName(name, identity, identityHDPrivateKey, preorderSaltBase58, preorder) }
+        }
+    }
+
+    private fun <T> call(block: (RequestContext) -> T): CompletableFuture<T> {
+        val future = CompletableFuture<T>()
+        // the gRPC context of the caller, and so its request priority, follows the call to executor
+        executor.execute(Context.current().wrap(Runnable {
+            if (future.isDone) {
+                // cancelled while it was queued
+                return@Runnable
+            }
+            // the deadline starts when the call starts, not while it waits for a thread
+            val context = if (timeoutMillis > 0)
+                RequestContext.withTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            else RequestContext.cancellable()
+            // this also runs when the caller cancels the future, which cancels the gRPC call
+            future.whenComplete { _, _ -> context.close() }
+            try {
+                future.complete(block(context))
+            } catch (e: Throwable) {
+                future.completeExceptionally(e)
+            } finally {
+                context.close()
+            }
+        }))
+        return future
+    }
+}
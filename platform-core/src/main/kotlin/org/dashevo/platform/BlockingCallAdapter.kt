@@ -0,0 +1,85 @@
+package org.dashevo.platform
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.suspendCancellableCoroutine
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.evolution.CreditFundingTransaction
+import org.dashevo.dapiclient.model.DocumentQuery
+import org.dashevo.dpp.contract.Contract
+import org.dashevo.dpp.document.Document
+import org.dashevo.dpp.identity.Identity
+import java.util.concurrent.Executor
+
+/**
+ * Runs the blocking [Platform] calls on [executor] and exposes them as suspend functions.
+ *
+ * This is an adapter for callers that use coroutines, not a way to scale the number of calls.
+ * DapiClient only exposes blocking stubs, so every call holds a thread of [executor] until the
+ * response arrives. The number of calls in flight is capped by the size of [executor], 64
+ * threads for the default [Dispatchers.IO], however many coroutines are waiting. What the
+ * adapter adds is that the calling coroutine is suspended, not blocked, and that cancelling it
+ * (directly or through withTimeout) cancels the gRPC call through a [RequestContext].
+ *
+ * @property platform Platform
+ * @property executor Executor that runs the blocking DAPI calls
+ */
+class BlockingCallAdapter @JvmOverloads constructor(
+    val platform: Platform,
+    val executor: Executor = Dispatchers.IO.asExecutor()
+) {
+
+    suspend fun getContract(identifier: String): Contract? {
+        return call { context -> platform.contracts.get(identifier, context) }
+    }
+
+    suspend fun getDocuments(typeLocator: String, opts: DocumentQuery): List<Document> {
+        return call { context -> platform.documents.get(typeLocator, opts, context) }
+    }
+
+    suspend fun getIdentity(id: String): Identity? {
+        return call { context -> platform.identities.get(id, context) }
+    }
+
+    suspend fun getIdentities(ids: Collection<String>): Identities.BulkResult {
+        return call { context -> platform.identities.getMany(ids, context = context) }
+    }
+
+    suspend fun registerIdentity(identityType: Identity.IdentityType, signedLockTransaction: CreditFundingTransaction): String {
+        return call { context -> context.run { platform.identities.register(identityType, signedLockTransaction) } }
+    }
+
+    suspend fun getName(name: String, parentDomain: String = Names.DEFAULT_PARENT_DOMAIN): Document? {
+        return call { context -> platform.names.get(name, parentDomain, context) }
+    }
+
+    suspend fun preorderName(name: String, identity: Identity, identityHDPrivateKey: ECKey, preorderSaltBase58: String): Document? {
+        return call { context -> context.run { platform.names.preorder(name, identity, identityHDPrivateKey, preorderSaltBase58) } }
+    }
+
+    suspend fun registerName(name: String, identity: Identity, identityHDPrivateKey: ECKey, preorderSaltBase58: String, preorder: Document): Document? {
+        return call { context ->
+            context.run { platform.names.registerName(name, identity, identityHDPrivateKey, preorderSaltBase58, preorder) }
+        }
+    }
+
+    /**
+     * Runs [block] on [executor] and suspends until it completes. Cancellation of the calling
+     * coroutine cancels the [RequestContext] handed to [block].
+     */
+    private suspend fun <T> call(block: (RequestContext) -> T): T {
+        val context = RequestContext.cancellable()
+        return suspendCancellableCoroutine { continuation ->
+            continuation.invokeOnCancellation { context.cancel() }
+            executor.execute {
+                // errors are caught as well, or the coroutine would never be resumed
+                val result = try {
+                    runCatching { block(context) }
+                } finally {
+                    context.close()
+                }
+                continuation.resumeWith(result)
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.dashevo.platform
+
+/**
+ * Reads selected fields of a CBOR encoded map without decoding the rest.
+ *
+ * The values of the keys in [fields] are decoded into the same types as [org.dashevo.dpp.util.Cbor]
+ * produces: Int or Long, Double, Boolean, String, ByteArray, List and Map. Every other value is
+ * stepped over, so its strings, byte arrays and nested containers are never allocated. The keys
+ * are compared as UTF-8 bytes, so the keys that are not read are not decoded either. The strings
+ * that are decoded go through a [StringDeduplicator] when one is given.
+ *
+ * @property fields Map<String, Int> the keys to read and the index of each in the result
+ */
+internal class CborFieldReader(private val fields: Map<String, Int>) {
+
+    private class Input(val bytes: ByteArray, val deduplicator: StringDeduplicator?) {
+        var position = 0
+
+        fun readByte(): Int {
+            if (position >= bytes.size) {
+                throw IllegalArgumentException("CBOR data ends unexpectedly at $position")
+            }
+            return bytes[position++].toInt() and 0xff
+        }
+
+        fun readBytes(length: Long): ByteArray {
+            checkAvailable(length)
+            val result = bytes.copyOfRange(position, position + length.toInt())
+            position += length.toInt()
+            return result
+        }
+
+        fun readString(length: Long): String {
+            checkAvailable(length)
+            val start = position
+            position += length.toInt()
+            return if (deduplicator != null) deduplicator.deduplicate(bytes, start, length.toInt())
+            else String(bytes, start, length.toInt(), Charsets.UTF_8)
+        }
+
+        fun skip(length: Long) {
+            checkAvailable(length)
+            position += length.toInt()
+        }
+
+        private fun checkAvailable(length: Long) {
+            if (length < 0 || length > bytes.size - position) {
+                throw IllegalArgumentException("CBOR data ends unexpectedly at $position")
+            }
+        }
+    }
+
+    companion object {
+        private const val INDEFINITE = -1L
+        private const val BREAK = 0xff
+    }
+
+    /** The UTF-8 bytes of each key of [fields], with its index in [keyIndices] */
+    private val keyBytes: Array<ByteArray>
+    private val keyIndices: IntArray
+
+    init {
+        val entries = fields.entries.toList()
+        keyBytes = Array(entries.size) { entries[it].key.toByteArray(Charsets.UTF_8) }
+        keyIndices = IntArray(entries.size) { entries[it].value }
+    }
+
+    /**
+     * Reads the top level map of [bytes]
+     *
+     * @return the value of each field at its index, null for the fields that are absent
+     * @throws IllegalArgumentException if [bytes] are not a CBOR map
+     */
+    fun read(bytes: ByteArray, deduplicator: StringDeduplicator? = null): Array<Any?> {
+        val values = arrayOfNulls<Any?>(fields.size)
+        val input = Input(bytes, deduplicator)
+        val initial = input.readByte()
+        if (initial shr 5 != 5) {
+            throw IllegalArgumentException("CBOR data is not a map")
+        }
+        var remaining = readLength(input, initial)
+        var found = 0
+        while (remaining != 0L && found < fields.size) {
+            if (remaining == INDEFINITE && peekBreak(input)) {
+                break
+            }
+            val index = readKey(input)
+            if (index >= 0) {
+                values[index] = readItem(input)
+                found++
+            } else {
+                skipItem(input)
+            }
+            if (remaining != INDEFINITE) remaining--
+        }
+        return values
+    }
+
+    /** Reads a key of the top level map and returns the index of its field, -1 if it is not read */
+    private fun readKey(input: Input): Int {
+        val initial = input.bytes.getOrNull(input.position)?.toInt()?.and(0xff)
+        if (initial != null && initial shr 5 == 3 && initial and 0x1f != 31) {
+            input.position++
+            val length = readLength(input, initial)
+            val start = input.position
+            input.skip(length)
+            return indexOfKey(input.bytes, start, length.toInt())
+        }
+        // chunked strings and keys of other types are rare, they are decoded
+        val key = readItem(input) as? String ?: return -1
+        return fields[key] ?: -1
+    }
+
+    private fun indexOfKey(bytes: ByteArray, start: Int, length: Int): Int {
+        for (i in keyBytes.indices) {
+            val key = keyBytes[i]
+            if (key.size == length && regionEquals(key, bytes, start)) {
+                return keyIndices[i]
+            }
+        }
+        return -1
+    }
+
+    private fun regionEquals(key: ByteArray, bytes: ByteArray, start: Int): Boolean {
+        for (i in key.indices) {
+            if (key[i] != bytes[start + i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun peekBreak(input: Input): Boolean {
+        if (input.bytes.getOrNull(input.position)?.toInt()?.and(0xff) == BREAK) {
+            input.position++
+            return true
+        }
+        return false
+    }
+
+    /** Reads the argument of the item whose first byte is [initial], [INDEFINITE] for indefinite lengths */
+    private fun readLength(input: Input, initial: Int): Long {
+        val info = initial and 0x1f
+        return when {
+            info < 24 -> info.toLong()
+            info == 24 -> input.readByte().toLong()
+            info == 25 -> (input.readByte().toLong() shl 8) or input.readByte().toLong()
+            info == 26 -> {
+                var value = 0L
+                repeat(4) { value = (value shl 8) or input.readByte().toLong() }
+                value
+            }
+            info == 27 -> {
+                var value = 0L
+                repeat(8) { value = (value shl 8) or input.readByte().toLong() }
+                value
+            }
+            info == 31 -> INDEFINITE
+            else -> throw IllegalArgumentException("Invalid CBOR item at ${input.position - 1}")
+        }
+    }
+
+    private fun readItem(input: Input): Any? {
+        val initial = input.readByte()
+        val major = initial shr 5
+        if (major == 7) {
+            return readSimple(input, initial)
+        }
+        val length = readLength(input, initial)
+        return when (major) {
+            0 -> integer(length)
+            1 -> integer(-1 - length)
+            2 -> if (length == INDEFINITE) readChunks(input) else input.readBytes(length)
+            3 -> if (length == INDEFINITE) String(readChunks(input), Charsets.UTF_8) else input.readString(length)
+            4 -> {
+                val list = ArrayList<Any?>(if (length == INDEFINITE) 10 else Math.min(length, 1024L).toInt())
+                var remaining = length
+                while (remaining != 0L && !(remaining == INDEFINITE && peekBreak(input))) {
+                    list.add(readItem(input))
+                    if (remaining != INDEFINITE) remaining--
+                }
+                list
+            }
+            5 -> {
+                val map = LinkedHashMap<Any?, Any?>()
+                var remaining = length
+                while (remaining != 0L && !(remaining == INDEFINITE && peekBreak(input))) {
+                    val key = readItem(input)
+                    map[key] = readItem(input)
+                    if (remaining != INDEFINITE) remaining--
+                }
+                map
+            }
+            // tags are dropped, the tagged item is returned as it is
+            else -> readItem(input)
+        }
+    }
+
+    private fun integer(value: Long): Any {
+        return if (value >= Int.MIN_VALUE && value <= Int.MAX_VALUE) value.toInt() else value
+    }
+
+    private fun readChunks(input: Input): ByteArray {
+        val chunks = ArrayList<ByteArray>()
+        while (!peekBreak(input)) {
+            val initial = input.readByte()
+            chunks.add(input.readBytes(readLength(input, initial)))
+        }
+        val result = ByteArray(chunks.sumBy { it.size })
+        var offset = 0
+        for (chunk in chunks) {
+            System.arraycopy(chunk, 0, result, offset, chunk.size)
+            offset += chunk.size
+        }
+        return result
+    }
+
+    private fun readSimple(input: Input, initial: Int): Any? {
+        return when (initial and 0x1f) {
+            20 -> false
+            21 -> true
+            22, 23 -> null
+            25 -> halfToDouble(readLength(input, initial).toInt())
+            26 -> java.lang.Float.intBitsToFloat(readLength(input, initial).toInt()).toDouble()
+            27 -> java.lang.Double.longBitsToDouble(readLength(input, initial))
+            else -> readLength(input, initial).toInt()
+        }
+    }
+
+    private fun halfToDouble(half: Int): Double {
+        val exponent = (half shr 10) and 0x1f
+        val mantissa = half and 0x3ff
+        val magnitude = when (exponent) {
+            0 -> mantissa * Math.pow(2.0, -24.0)
+            31 -> if (mantissa == 0) Double.POSITIVE_INFINITY else Double.NaN
+            else -> (mantissa + 1024) * Math.pow(2.0, exponent - 25.0)
+        }
+        return if (half and 0x8000 != 0) -magnitude else magnitude
+    }
+
+    private fun skipItem(input: Input) {
+        val initial = input.readByte()
+        val major = initial shr 5
+        val length = readLength(input, initial)
+        when (major) {
+            2, 3 -> if (length == INDEFINITE) {
+                while (!peekBreak(input)) {
+                    input.skip(readLength(input, input.readByte()))
+                }
+            } else {
+                input.skip(length)
+            }
+            4, 5 -> {
+                val items = if (major == 5 && length != INDEFINITE) length * 2 else length
+                var remaining = items
+                while (remaining != 0L && !(remaining == INDEFINITE && peekBreak(input))) {
+                    skipItem(input)
+                    if (major == 5 && remaining == INDEFINITE) skipItem(input)
+                    if (remaining != INDEFINITE) remaining--
+                }
+            }
+            6 -> skipItem(input)
+        }
+    }
+}
@@ -9,7 +9,8 @@ class Contracts (val platform: Platform) {
         return platform.dpp.dataContract.create(identity.id, documentDefinitions)
     }
 
-    fun get(identifier: String): Contract? {
+    @JvmOverloads
+    fun get(identifier: String, context: RequestContext? = null): Contract? {
         var localContract: ContractInfo? = null;
 
         for (appName in platform.apps.keys) {
@@ -24,13 +25,15 @@ class Contracts (val platform: Platform) {
             return localContract.contract;
         } else {
             try {
-                val rawContract = platform.client.getDataContract(identifier) ?: return null
+                val rawContract = platform.call(context, RateLimiter.RpcType.GET_DATA_CONTRACT) { platform.client.getDataContract(identifier) } ?: return null
 
                 val contract = platform.dpp.dataContract.createFromSerialized(rawContract.toByteArray())
                 val app = ContractInfo(contract.contractId, contract)
                 // If we do not have even the identifier in this.apps, we add it with timestamp as key
                 if (localContract == null) {
                     platform.apps[Date().toString()] = app
+                } else {
+                    localContract.contract = contract
                 }
                 return contract;
             } catch (e: Exception) {
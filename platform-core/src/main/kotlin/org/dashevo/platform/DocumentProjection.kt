@@ -0,0 +1,42 @@
+package org.dashevo.platform
+
+/**
+ * The fields of a document that a reader needs.
+ *
+ * [read] decodes only those fields from a serialized document and returns them as a
+ * [ProjectedDocument]. The other fields are skipped without being decoded, and no [org.dashevo.dpp.document.Document]
+ * or data map is built. System fields such as `$userId` can be named like any other field.
+ *
+ * @property fields List<String>
+ */
+class DocumentProjection(val fields: List<String>) {
+
+    constructor(vararg fields: String) : this(fields.toList())
+
+    private val indices: Map<String, Int> = fields.withIndex().associate { it.value to it.index }
+    private val reader = CborFieldReader(indices)
+
+    init {
+        require(indices.size == fields.size) { "the fields of a projection must be unique: $fields" }
+    }
+
+    /** Returns the index of [field] in [fields], -1 if it is not part of this projection */
+    fun indexOf(field: String): Int {
+        return indices[field] ?: -1
+    }
+
+    /**
+     * Reads the projected fields of the serialized document [bytes], with the strings replaced by
+     * the canonical instances of [deduplicator] when one is given
+     *
+     * @throws IllegalArgumentException if [bytes] are not a CBOR encoded document
+     */
+    @JvmOverloads
+    fun read(bytes: ByteArray, deduplicator: StringDeduplicator? = null): ProjectedDocument {
+        return ProjectedDocument(this, reader.read(bytes, deduplicator))
+    }
+
+    override fun toString(): String {
+        return "DocumentProjection($fields)"
+    }
+}
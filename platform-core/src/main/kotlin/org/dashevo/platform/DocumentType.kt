@@ -0,0 +1,90 @@
+package org.dashevo.platform
+
+import org.dashevo.dapiclient.model.DocumentQuery
+import org.dashevo.dpp.contract.Contract
+import org.dashevo.dpp.document.Document
+import org.dashevo.dpp.identity.Identity
+
+/**
+ * A document type of a data contract, resolved once for repeated use.
+ *
+ * Get one from [Documents.type]. The type locator, app and contract are looked up when the
+ * handle is created, so [create] only hands the field values and the resolved contract to DPP.
+ *
+ * @property appName String the app of [Platform.apps] that the contract belongs to
+ * @property type String the document type within [contract]
+ * @property contract Contract
+ */
+class DocumentType internal constructor(
+    val platform: Platform,
+    val appName: String,
+    val type: String,
+    val contract: Contract
+) {
+
+    val contractId: String
+        get() = contract.contractId
+
+    val locator: String = "$appName.$type"
+
+    /** The JSON schema of [type] in [contract] */
+    val schema: Map<String, Any?>
+
+    /** The names of the properties defined by [schema] */
+    val properties: Set<String>
+
+    init {
+        @Suppress("UNCHECKED_CAST")
+        schema = contract.documents[type] as? Map<String, Any?>
+            ?: throw Exception("Contract $contractId does not define the document type $type")
+        @Suppress("UNCHECKED_CAST")
+        properties = (schema["properties"] as? Map<String, Any?>)?.keys ?: setOf()
+    }
+
+    @JvmOverloads
+    fun create(identity: Identity, fields: Map<String, Any?>, validate: Boolean = false): Document {
+        return create(identity.id, fields, validate)
+    }
+
+    /** The validator of the current version of [contract], see [Platform.documentValidators] */
+    val validator: DocumentValidator
+        get() = platform.documentValidators.get(contract, type)
+
+    /**
+     * Creates a document of this type owned by [ownerId]. When [validate] is set, [fields] are
+     * checked first by [validator], which covers a subset of JSON Schema, see [DocumentValidator].
+     *
+     * @throws IllegalArgumentException if [validate] is set and [fields] do not match [schema]
+     */
+    @JvmOverloads
+    fun create(ownerId: String, fields: Map<String, Any?>, validate: Boolean = false): Document {
+        if (validate) {
+            val errors = validator.validate(fields)
+            if (errors.isNotEmpty()) {
+                throw IllegalArgumentException("Invalid $locator document: ${errors.joinToString()}")
+            }
+        }
+        @Suppress("UNCHECKED_CAST")
+        return platform.dpp.document.create(contract, ownerId, type, fields as Map<String, Any>)
+    }
+
+    /**
+     * Fetches documents of this type. Platform validated them when they were submitted, so they
+     * are only checked against [schema] again when [validate] is set, and those that fail are
+     * dropped.
+     */
+    @JvmOverloads
+    fun get(opts: DocumentQuery, context: RequestContext? = null, validate: Boolean = false): List<Document> {
+        return platform.documents.get(contractId, type, opts, context, if (validate) validator else null)
+    }
+
+    /** Fetches documents of this type, decoding only the fields of [projection] */
+    @JvmOverloads
+    fun get(opts: DocumentQuery, projection: DocumentProjection, context: RequestContext? = null): List<ProjectedDocument> {
+        return platform.documents.get(contractId, type, opts, projection, context)
+    }
+
+    override fun toString(): String {
+        return "DocumentType($locator, contractId=$contractId)"
+    }
+}
@@ -0,0 +1,142 @@
+package org.dashevo.platform
+
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Checks document fields against the JSON schema of one document type of one contract version.
+ *
+ * The schema is read once, when the validator is built: its required fields, whether other
+ * fields are allowed and, for each top level property, the type, length bounds and compiled
+ * pattern. Validating a document is then a walk over its fields. Nested objects and arrays are
+ * only checked for their type, and patterns that Java cannot compile are skipped.
+ *
+ * This is not a full JSON Schema validator: patterns are run as Java regular expressions, which
+ * differ from ECMA 262 in places. A document that passes may still be rejected by Platform, and
+ * in rare cases one that fails would be accepted, which is why the callers only validate when
+ * asked to.
+ *
+ * @property contractId String
+ * @property type String the document type
+ * @property version Int the contract version that the schema was read from
+ */
+class DocumentValidator(
+    val contractId: String,
+    val type: String,
+    val version: Int,
+    schema: Map<String, Any?>
+) {
+
+    private class Property(
+        val name: String,
+        val jsonType: String?,
+        val minLength: Int?,
+        val maxLength: Int?,
+        val pattern: Regex?
+    )
+
+    private val required: List<String>
+    private val properties: Map<String, Property>
+    private val additionalProperties: Boolean
+
+    init {
+        @Suppress("UNCHECKED_CAST")
+        required = (schema["required"] as? List<Any?>)?.map { it.toString() } ?: listOf()
+        additionalProperties = schema["additionalProperties"] != false
+
+        @Suppress("UNCHECKED_CAST")
+        val definitions = schema["properties"] as? Map<String, Any?> ?: mapOf()
+        properties = definitions.mapValues { (name, definition) ->
+            @Suppress("UNCHECKED_CAST")
+            val propertySchema = definition as? Map<String, Any?> ?: mapOf()
+            Property(name,
+                propertySchema["type"] as? String,
+                (propertySchema["minLength"] as? Number)?.toInt(),
+                (propertySchema["maxLength"] as? Number)?.toInt(),
+                (propertySchema["pattern"] as? String)?.let { compile(it) })
+        }
+    }
+
+    private fun compile(pattern: String): Regex? {
+        return try {
+            Regex(pattern)
+        } catch (e: PatternSyntaxException) {
+            null
+        }
+    }
+
+    /**
+     * Validates the data [fields] of a document
+     *
+     * @return the problems found, empty if the fields are valid
+     */
+    fun validate(fields: Map<String, Any?>): List<String> {
+        var errors: MutableList<String>? = null
+        fun error(message: String) {
+            if (errors == null) errors = ArrayList()
+            errors!!.add(message)
+        }
+
+        for (name in required) {
+            if (fields[name] == null) {
+                error("$name is required")
+            }
+        }
+        for ((name, value) in fields) {
+            val property = properties[name]
+            if (property == null) {
+                if (!additionalProperties) error("$name is not a property of $type")
+                continue
+            }
+            if (value != null) {
+                validate(property, value)?.let { error(it) }
+            }
+        }
+        return errors ?: listOf()
+    }
+
+    private fun validate(property: Property, value: Any): String? {
+        val matchesType = when (property.jsonType) {
+            "string" -> value is String
+            "integer" -> isInteger(value)
+            "number" -> value is Number
+            "boolean" -> value is Boolean
+            "object" -> value is Map<*, *>
+            "array" -> value is List<*> || value is ByteArray
+            else -> true
+        }
+        if (!matchesType) {
+            return "${property.name} should be of type ${property.jsonType}"
+        }
+        if (value is String) {
+            // JSON Schema counts characters, not UTF-16 units
+            val length = value.codePointCount(0, value.length)
+            if (property.minLength != null && length < property.minLength) {
+                return "${property.name} is shorter than ${property.minLength}"
+            }
+            if (property.maxLength != null && length > property.maxLength) {
+                return "${property.name} is longer than ${property.maxLength}"
+            }
+            if (property.pattern != null && !property.pattern.containsMatchIn(value)) {
+                return "${property.name} does not match ${property.pattern.pattern}"
+            }
+        }
+        return null
+    }
+
+    /** Whether [value] is a number without a fraction, as JSON Schema defines integer */
+    private fun isInteger(value: Any): Boolean {
+        return when (value) {
+            is Int, is Long, is Short, is Byte, is BigInteger -> true
+            is Double -> !value.isInfinite() && value == Math.floor(value)
+            is Float -> !value.isInfinite() && value == Math.floor(value.toDouble()).toFloat()
+            is BigDecimal -> value.signum() == 0 || value.stripTrailingZeros().scale() <= 0
+            else -> false
+        }
+    }
+
+    override fun toString(): String {
+        return "DocumentValidator($contractId.$type, version=$version)"
+    }
+}
@@ -0,0 +1,58 @@
+package org.dashevo.platform
+
+import org.dashevo.dpp.contract.Contract
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The [DocumentValidator] of each document type, keyed on the contract id and type.
+ *
+ * A validator is built from the schema the first time its type is used and then reused. It is
+ * built again when it is asked for with another version of the contract, which happens when the
+ * contract of an app in [Platform.apps] is replaced, see [Documents.type].
+ */
+class DocumentValidatorCache {
+
+    private data class Key(val contractId: String, val type: String)
+
+    private val validators = ConcurrentHashMap<Key, DocumentValidator>()
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    val hitCount: Long
+        get() = hits.get()
+
+    val missCount: Long
+        get() = misses.get()
+
+    val size: Int
+        get() = validators.size
+
+    /** Returns the validator of [type] for the version of [contract] */
+    fun get(contract: Contract, type: String): DocumentValidator {
+        val key = Key(contract.contractId, type)
+        val cached = validators[key]
+        if (cached != null && cached.version == contract.version) {
+            hits.incrementAndGet()
+            return cached
+        }
+        misses.incrementAndGet()
+        @Suppress("UNCHECKED_CAST")
+        val schema = contract.documents[type] as? Map<String, Any?>
+            ?: throw Exception("Contract ${contract.contractId} does not define the document type $type")
+        val validator = DocumentValidator(contract.contractId, type, contract.version, schema)
+        validators[key] = validator
+        return validator
+    }
+
+    fun clear() {
+        validators.clear()
+        hits.set(0)
+        misses.set(0)
+    }
+
+    override fun toString(): String {
+        return "DocumentValidatorCache(size=$size, hits=$hitCount, misses=$missCount)"
+    }
+}
@@ -4,59 +4,120 @@ import org.dashevo.dapiclient.model.DocumentQuery
 import org.dashevo.dpp.Factory
 import org.dashevo.dpp.document.Document
 import org.dashevo.dpp.identity.Identity
+import java.util.concurrent.ConcurrentHashMap
 
 class Documents(val platform: Platform) {
-    fun create(typeLocator: String, identity: Identity, opts: MutableMap<String, Any?>): Document {
-        val dpp = platform.dpp
 
-        val appNames = platform.apps.keys
-        //We can either provide of type `dashpay.profile` or if only one schema provided, of type `profile`.
-        var appName: String
-        var fieldType: String
+    private val types = ConcurrentHashMap<String, DocumentType>()
 
-        if (typeLocator.contains('.')) {
+    /**
+     * When set, the strings of every document read by [get] and [scan] are replaced by their
+     * canonical instances, which saves heap when many documents are kept, see [StringDeduplicator]
+     */
+    @Volatile
+    var stringDeduplicator: StringDeduplicator? = null
 
-            val split = typeLocator.split('.')
-            appName = split[0]
-            fieldType = split[1]
-        }
-        else {
-            appName = appNames.first()
-            fieldType = typeLocator
+    @JvmOverloads
+    fun create(typeLocator: String, identity: Identity, opts: MutableMap<String, Any?>, context: RequestContext? = null): Document {
+        return type(typeLocator, context).create(identity, opts)
+    }
+
+    /**
+     * Returns the handle of [typeLocator], resolving its app and contract on first use. A handle
+     * is resolved again once the contract of its app in [Platform.apps] has been replaced.
+     */
+    @JvmOverloads
+    fun type(typeLocator: String, context: RequestContext? = null): DocumentType {
+        types[typeLocator]?.let { cached ->
+            if (platform.apps[cached.appName]?.contract === cached.contract) {
+                return cached
+            }
         }
 
+        val (appName, fieldType) = parseTypeLocator(typeLocator)
 
         if(!platform.apps.containsKey(appName)){
             throw Exception("Cannot find contractId for $appName")
         }
 
-        val dataContract = platform.contracts.get(platform.apps[appName]!!.contractId);
+        val contractId = platform.apps[appName]!!.contractId
+        val dataContract = platform.contracts.get(contractId, context)
+            ?: throw Exception("Cannot find contract $contractId for $appName")
+
+        val documentType = DocumentType(platform, appName, fieldType, dataContract)
+        types[typeLocator] = documentType
+        return documentType
+    }
 
-        return dpp.document.create(
-            dataContract!!,
-            identity.id,
-            fieldType,
-            opts as Map<String, Any>
-            )
+    @JvmOverloads
+    fun get(typeLocator: String, opts: DocumentQuery, context: RequestContext? = null): List<Document> {
+        val (contractId, fieldType) = resolveContractId(typeLocator)
+        return get(contractId, fieldType, opts, context)
     }
 
-    fun get(typeLocator: String, opts: DocumentQuery): List<Document> {
-        val appNames = platform.apps.keys
-        //We can either provide of type `dashpay.profile` or if only one schema provided, of type `profile`.
-        var appName: String
-        var fieldType: String
+    /**
+     * Fetches the documents of [typeLocator] that match [opts] but only decodes the fields of
+     * [projection], see [DocumentProjection]
+     */
+    @JvmOverloads
+    fun get(typeLocator: String, opts: DocumentQuery, projection: DocumentProjection, context: RequestContext? = null): List<ProjectedDocument> {
+        val (contractId, fieldType) = resolveContractId(typeLocator)
+        return get(contractId, fieldType, opts, projection, context)
+    }
 
-        if (typeLocator.contains('.')) {
+    internal fun get(contractId: String, fieldType: String, opts: DocumentQuery, projection: DocumentProjection,
+                     context: RequestContext?): List<ProjectedDocument> {
+        return getPage(contractId, fieldType, opts, projection, context).documents
+    }
 
-            val split = typeLocator.split('.')
-            appName = split[0]
-            fieldType = split[1]
-        }
-        else {
-            appName = appNames.first()
-            fieldType = typeLocator
+    /**
+     * The documents decoded from one response
+     *
+     * @property rawSize Int the number of documents returned, including those that could not be decoded
+     */
+    private class Page(val rawSize: Int, val documents: List<ProjectedDocument>)
+
+    private fun getPage(contractId: String, fieldType: String, opts: DocumentQuery, projection: DocumentProjection,
+                        context: RequestContext?): Page {
+        val rawDataList = platform.call(context, RateLimiter.RpcType.GET_DOCUMENTS) { platform.client.getDocuments(contractId, fieldType, opts) }
+            ?: listOf<ByteArray>()
+        val documents = ArrayList<ProjectedDocument>(rawDataList.size)
+        for (rawData in rawDataList) {
+            try {
+                documents.add(projection.read(rawData, stringDeduplicator))
+            } catch (e: IllegalArgumentException) {
+                println("Document creation: failure: " + e)
+            }
         }
+        return Page(rawDataList.size, documents)
+    }
+
+    /**
+     * Reads every document of [typeLocator], [pageSize] at a time, decoding only the fields of
+     * [projection]. The next page is fetched when the sequence reaches the end of the current one.
+     */
+    @JvmOverloads
+    fun scan(typeLocator: String, projection: DocumentProjection, pageSize: Int = 100, context: RequestContext? = null): Sequence<ProjectedDocument> {
+        require(pageSize > 0) { "the page size must be positive" }
+        val (contractId, fieldType) = resolveContractId(typeLocator)
+        var startAt = 0
+        var done = false
+        return generateSequence {
+            if (done) {
+                null
+            } else {
+                val page = getPage(contractId, fieldType, DocumentQuery.Builder().startAt(startAt).limit(pageSize).build(),
+                    projection, context)
+                startAt += pageSize
+                // a short response is the last one, counted before decoding so a bad document does not end the scan
+                done = page.rawSize < pageSize
+                if (page.rawSize == 0) null else page.documents
+            }
+        }.flatMap { it.asSequence() }
+    }
 
+    private fun resolveContractId(typeLocator: String): Pair<String, String> {
+        val (appName, fieldType) = parseTypeLocator(typeLocator)
 
         if (!platform.apps.containsKey(appName)) {
             throw Exception("No app named $appName specified.")
@@ -65,14 +126,25 @@ class Documents(val platform: Platform) {
         if (app!!.contractId.isEmpty()) {
             throw Exception("Missing contract ID for $appName")
         }
-        val contractId = app.contractId;
+        return Pair(app.contractId, fieldType)
+    }
+
+    /** Fetches the documents of [fieldType], dropping those that [validator] rejects when one is given */
+    internal fun get(contractId: String, fieldType: String, opts: DocumentQuery, context: RequestContext?,
+                     validator: DocumentValidator? = null): List<Document> {
         try {
-            val rawDataList = platform.client.getDocuments(contractId, fieldType, opts);
+            val rawDataList = platform.call(context, RateLimiter.RpcType.GET_DOCUMENTS) { platform.client.getDocuments(contractId, fieldType, opts) };
             val documents = ArrayList<Document>()
 
             for (rawData in rawDataList!!) {
                 try {
                     val doc = platform.dpp.document.createFromSerialized(rawData, Factory.Options(true))
+                    stringDeduplicator?.deduplicateValues(doc.data)
+                    val errors = validator?.validate(doc.data)
+                    if (errors != null && errors.isNotEmpty()) {
+                        println("Document creation: invalid document ${doc.id}: $errors")
+                        continue
+                    }
                     documents.add(doc);
                 } catch (e: Exception) {
                     println("Document creation: failure: "+ e);
@@ -84,4 +156,14 @@ class Documents(val platform: Platform) {
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    /** We can either provide of type `dashpay.profile` or if only one schema provided, of type `profile`. */
+    private fun parseTypeLocator(typeLocator: String): Pair<String, String> {
+        val dot = typeLocator.indexOf('.')
+        return if (dot != -1) {
+            Pair(typeLocator.substring(0, dot), typeLocator.substring(dot + 1))
+        } else {
+            Pair(platform.apps.keys.first(), typeLocator)
+        }
+    }
+}
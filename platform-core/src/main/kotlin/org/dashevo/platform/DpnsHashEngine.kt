@@ -0,0 +1,128 @@
+package org.dashevo.platform
+
+import java.security.MessageDigest
+
+/**
+ * Computes DPNS name hashes and salted domain hashes without per call allocations.
+ *
+ * Every thread reuses its own SHA-256 digest and scratch buffers. Names are encoded straight into
+ * the scratch buffer when they are a plain ASCII label; other names fall back to
+ * [Names.normalizeName] so that the results always match the document fields.
+ *
+ * All hashes are double SHA-256, the same as Sha256Hash.twiceOf, and are written as 32 bytes
+ * at the given offset of the output array.
+ */
+object DpnsHashEngine {
+    const val HASH_LENGTH = 32
+
+    /** multihash prefix for a 32 byte double SHA-256, hashed between the salt and the name hash */
+    private const val MULTIHASH_SHA256D: Byte = 0x56
+    private const val MULTIHASH_LENGTH: Byte = 0x20
+
+    private class Scratch {
+        val digest: MessageDigest = MessageDigest.getInstance("SHA-256")
+        val round = ByteArray(HASH_LENGTH)
+        val nameHash = ByteArray(HASH_LENGTH)
+        var buffer = ByteArray(128)
+
+        fun ensureCapacity(size: Int): ByteArray {
+            if (buffer.size < size) {
+                buffer = ByteArray(Math.max(size, buffer.size * 2))
+            }
+            return buffer
+        }
+
+        fun doubleSha256(input: ByteArray, length: Int, out: ByteArray, offset: Int) {
+            digest.update(input, 0, length)
+            digest.digest(round, 0, HASH_LENGTH)
+            digest.update(round, 0, HASH_LENGTH)
+            digest.digest(out, offset, HASH_LENGTH)
+        }
+    }
+
+    private val scratch = ThreadLocal.withInitial { Scratch() }
+
+    fun nameHash(name: String): ByteArray {
+        val out = ByteArray(HASH_LENGTH)
+        nameHash(name, out, 0)
+        return out
+    }
+
+    /** Writes the hash of the normalized full domain name of [name] to [out] at [offset] */
+    fun nameHash(name: String, out: ByteArray, offset: Int) {
+        nameHash(scratch.get(), name, out, offset)
+    }
+
+    fun saltedDomainHash(salt: ByteArray, nameHash: ByteArray): ByteArray {
+        val out = ByteArray(HASH_LENGTH)
+        saltedDomainHash(salt, nameHash, out, 0)
+        return out
+    }
+
+    /** Writes the hash of [salt], the multihash prefix and [nameHash] to [out] at [offset] */
+    fun saltedDomainHash(salt: ByteArray, nameHash: ByteArray, out: ByteArray, offset: Int) {
+        saltedDomainHash(scratch.get(), salt, nameHash, out, offset)
+    }
+
+    fun saltedDomainHashForName(salt: ByteArray, name: String): ByteArray {
+        val out = ByteArray(HASH_LENGTH)
+        saltedDomainHashForName(salt, name, out, 0)
+        return out
+    }
+
+    fun saltedDomainHashForName(salt: ByteArray, name: String, out: ByteArray, offset: Int) {
+        val scratch = scratch.get()
+        nameHash(scratch, name, scratch.nameHash, 0)
+        saltedDomainHash(scratch, salt, scratch.nameHash, out, offset)
+    }
+
+    /**
+     * Computes the salted domain hashes of all (salt, name) pairs in one call.
+     *
+     * @return [out], holding the hash of pair i at offset i * [HASH_LENGTH]
+     */
+    @JvmOverloads
+    fun saltedDomainHashes(salts: List<ByteArray>, names: List<String>,
+                           out: ByteArray = ByteArray(names.size * HASH_LENGTH)): ByteArray {
+        require(salts.size == names.size) { "there must be one salt per name" }
+        require(out.size >= names.size * HASH_LENGTH) { "the output array is too small" }
+        val scratch = scratch.get()
+        for (i in names.indices) {
+            nameHash(scratch, names[i], scratch.nameHash, 0)
+            saltedDomainHash(scratch, salts[i], scratch.nameHash, out, i * HASH_LENGTH)
+        }
+        return out
+    }
+
+    private fun nameHash(scratch: Scratch, name: String, out: ByteArray, offset: Int) {
+        val parent = Names.DEFAULT_PARENT_DOMAIN
+        val length = name.length + 1 + parent.length
+        val buffer = scratch.ensureCapacity(length)
+        for (i in name.indices) {
+            val c = name[i]
+            if (c >= 0x80.toChar() || c == '.') {
+                // not a plain label, use the same normalization as the domain document
+                val (normalizedParentDomainName, normalizedLabel) = Names.normalizeName(name)
+                val fullDomainName = "$normalizedLabel.$normalizedParentDomainName".toByteArray()
+                scratch.doubleSha256(fullDomainName, fullDomainName.size, out, offset)
+                return
+            }
+            buffer[i] = (if (c in 'A'..'Z') c + ('a' - 'A') else c).toByte()
+        }
+        buffer[name.length] = '.'.toByte()
+        for (i in parent.indices) {
+            buffer[name.length + 1 + i] = parent[i].toByte()
+        }
+        scratch.doubleSha256(buffer, length, out, offset)
+    }
+
+    private fun saltedDomainHash(scratch: Scratch, salt: ByteArray, nameHash: ByteArray, out: ByteArray, offset: Int) {
+        val length = salt.size + 2 + HASH_LENGTH
+        val buffer = scratch.ensureCapacity(length)
+        System.arraycopy(salt, 0, buffer, 0, salt.size)
+        buffer[salt.size] = MULTIHASH_SHA256D
+        buffer[salt.size + 1] = MULTIHASH_LENGTH
+        System.arraycopy(nameHash, 0, buffer, salt.size + 2, HASH_LENGTH)
+        scratch.doubleSha256(buffer, length, out, offset)
+    }
+}
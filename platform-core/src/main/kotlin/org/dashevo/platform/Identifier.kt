@@ -0,0 +1,99 @@
+package org.dashevo.platform
+
+import org.bitcoinj.core.Base58
+import org.bitcoinj.core.Sha256Hash
+import org.dashevo.dpp.toHexString
+import java.util.Arrays
+
+/**
+ * The 32 byte id of an identity or a data contract.
+ *
+ * Ids are passed around Platform as base58 strings. An Identifier holds the bytes instead, so
+ * that using it as a map key costs a 32 byte comparison and a precomputed hash. The base58 and
+ * hex forms are computed the first time they are asked for and then kept, so converting back to
+ * a string at an API boundary is only paid once per instance.
+ */
+class Identifier private constructor(private val bytes: ByteArray, base58: String?) : Comparable<Identifier> {
+
+    companion object {
+        const val LENGTH = 32
+
+        /** @throws IllegalArgumentException if [bytes] are not [LENGTH] bytes long */
+        @JvmStatic
+        fun from(bytes: ByteArray): Identifier {
+            require(bytes.size == LENGTH) { "an identifier is $LENGTH bytes, not ${bytes.size}" }
+            return Identifier(bytes.copyOf(), null)
+        }
+
+        @JvmStatic
+        fun from(hash: Sha256Hash): Identifier {
+            return Identifier(hash.bytes.copyOf(), null)
+        }
+
+        /** @throws IllegalArgumentException if [base58] is not the base58 form of [LENGTH] bytes */
+        @JvmStatic
+        fun fromBase58(base58: String): Identifier {
+            val bytes = Base58.decode(base58)
+            require(bytes.size == LENGTH) { "$base58 is not an identifier" }
+            return Identifier(bytes, base58)
+        }
+
+        /** Returns the identifier of [base58], or null if it is not the base58 form of [LENGTH] bytes */
+        @JvmStatic
+        fun fromBase58OrNull(base58: String): Identifier? {
+            return try {
+                fromBase58(base58)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+    }
+
+    private val hash: Int = (bytes[0].toInt() and 0xff shl 24) or (bytes[1].toInt() and 0xff shl 16) or
+        (bytes[2].toInt() and 0xff shl 8) or (bytes[3].toInt() and 0xff)
+
+    @Volatile
+    private var base58: String? = base58
+
+    @Volatile
+    private var hex: String? = null
+
+    /** A copy of the 32 bytes of this identifier */
+    fun getBytes(): ByteArray {
+        return bytes.copyOf()
+    }
+
+    fun toSha256Hash(): Sha256Hash {
+        return Sha256Hash.wrap(bytes.copyOf())
+    }
+
+    fun toBase58(): String {
+        return base58 ?: Base58.encode(bytes).also { base58 = it }
+    }
+
+    fun toHex(): String {
+        return hex ?: bytes.toHexString().also { hex = it }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        return other is Identifier && hash == other.hash && Arrays.equals(bytes, other.bytes)
+    }
+
+    /** The ids are hashes, so their first bytes are already well distributed */
+    override fun hashCode(): Int {
+        return hash
+    }
+
+    override fun compareTo(other: Identifier): Int {
+        for (i in 0 until LENGTH) {
+            val difference = (bytes[i].toInt() and 0xff) - (other.bytes[i].toInt() and 0xff)
+            if (difference != 0) return difference
+        }
+        return 0
+    }
+
+    override fun toString(): String {
+        return toBase58()
+    }
+}
@@ -1,41 +1,253 @@
 package org.dashevo.platform
 
+import io.grpc.Context
 import org.bitcoinj.evolution.CreditFundingTransaction
 import org.dashevo.dpp.identity.Identity
 import org.dashevo.dpp.identity.IdentityCreateTransition
 import org.dashevo.dpp.identity.IdentityPublicKey
 import org.dashevo.dpp.toBase64
 import org.dashevo.dpp.toHexString
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 class Identities(val platform: Platform) {
 
+    companion object {
+        const val DEFAULT_BULK_PARALLELISM = 8
+        /** the largest number of ids that one worker of [getMany] takes at a time */
+        private const val BULK_CHUNK_SIZE = 16
+
+        private val bulkExecutor: ExecutorService by lazy {
+            Executors.newCachedThreadPool { runnable ->
+                val thread = Thread(runnable, "Identities-bulk")
+                thread.isDaemon = true
+                thread
+            }
+        }
+    }
+
+    /**
+     * The result of [getMany]. An id that is in neither [identities] nor [failures] does not exist.
+     *
+     * @property identities Map<String, Identity> the identities that were found, in the order requested
+     * @property failures List<Failure> the ids that could not be fetched, with the error
+     */
+    class BulkResult(val identities: Map<String, Identity>, val failures: List<Failure>) {
+        class Failure(val id: String, val error: Exception)
+    }
+
+    /**
+     * Thrown by the batch [register] when an identity create transition cannot be submitted.
+     * The transitions are submitted in order, so the first [registeredIds] size lock transactions
+     * were registered and the rest, starting with the one that failed, were not.
+     *
+     * @property registeredIds List<String> the ids of the identities submitted before the failure
+     */
+    class RegistrationException(val registeredIds: List<String>, cause: Exception) :
+        Exception("registration failed after ${registeredIds.size} identities were submitted", cause)
+
+    /** The identities fetched by [get], also used by the DPP data provider of [platform] */
+    val cache = IdentityCache()
+
     fun register(identityType: Identity.IdentityType = Identity.IdentityType.USER, signedLockTransaction: CreditFundingTransaction): String
     {
+        try {
+            val signingRequest = createSigningRequest(identityType, signedLockTransaction)
+
+            platform.signer.sign(signingRequest)
+
+            platform.applyStateTransition(signingRequest.transition);
+            val identityId = (signingRequest.transition as IdentityCreateTransition).identityId
+            // drop a cached not found result, the identity is about to exist
+            cache.invalidate(Identifier.fromBase58(identityId))
+            return identityId
+        } catch (e: Exception) {
+            throw e
+        }
+    }
+
+    /**
+     * Registers an identity for each of the [signedLockTransactions], signing all of the
+     * identity create transitions in parallel before they are submitted
+     *
+     * @return the identity ids in the order of [signedLockTransactions]
+     * @throws RegistrationException with the ids already submitted if a submission fails
+     */
+    fun register(identityType: Identity.IdentityType, signedLockTransactions: List<CreditFundingTransaction>): List<String> {
+        val signingRequests = signedLockTransactions.map { createSigningRequest(identityType, it) }
+
+        platform.signer.signAll(signingRequests)
+
+        val identityIds = ArrayList<String>(signingRequests.size)
+        for (signingRequest in signingRequests) {
+            try {
+                platform.applyStateTransition(signingRequest.transition)
+            } catch (e: Exception) {
+                throw RegistrationException(identityIds, e)
+            }
+            val identityId = (signingRequest.transition as IdentityCreateTransition).identityId
+            cache.invalidate(Identifier.fromBase58(identityId))
+            identityIds.add(identityId)
+        }
+        return identityIds
+    }
+
+    private fun createSigningRequest(identityType: Identity.IdentityType, signedLockTransaction: CreditFundingTransaction): StateTransitionSigner.SigningRequest {
         val identityHDPrivateKey = signedLockTransaction.creditBurnPublicKey
 
-        try {
-            val outPoint = signedLockTransaction.lockedOutpoint.toStringBase64()
-            // FIXME (this will be fixed later, for now add one to the actual index)
-            val publicKeyId = signedLockTransaction.usedDerivationPathIndex + 1
+        val outPoint = signedLockTransaction.lockedOutpoint.toStringBase64()
+        // FIXME (this will be fixed later, for now add one to the actual index)
+        val publicKeyId = signedLockTransaction.usedDerivationPathIndex + 1
 
-            val identityPublicKeyModel = IdentityPublicKey(publicKeyId,
-                IdentityPublicKey.TYPES.ECDSA_SECP256K1,
-                identityHDPrivateKey.pubKey.toBase64(),
-                true)
+        val identityPublicKeyModel = IdentityPublicKey(publicKeyId,
+            IdentityPublicKey.TYPES.ECDSA_SECP256K1,
+            identityHDPrivateKey.pubKey.toBase64(),
+            true)
 
-            val identityCreateTransition = IdentityCreateTransition(identityType, outPoint, listOf(identityPublicKeyModel))
+        val identityCreateTransition = IdentityCreateTransition(identityType, outPoint, listOf(identityPublicKeyModel))
 
-            identityCreateTransition.sign(identityPublicKeyModel, identityHDPrivateKey.privateKeyAsHex)
+        return StateTransitionSigner.SigningRequest(identityCreateTransition, identityPublicKeyModel, identityHDPrivateKey.privateKeyAsHex)
+    }
 
-            platform.client.applyStateTransition(identityCreateTransition);
-            return identityCreateTransition.identityId
-        } catch (e: Exception) {
-            throw e
+    /**
+     * Returns the identity [id], from the [cache] while it has not expired. The cached instances
+     * are shared by all callers and must not be modified, see [IdentityCache]. Use [fetch] when
+     * an answer of the last seconds is not good enough, such as when polling for a registration.
+     * An [id] that is not a valid [Identifier] is not found.
+     */
+    @JvmOverloads
+    fun get(id: String, context: RequestContext? = null): Identity? {
+        val identifier = Identifier.fromBase58OrNull(id) ?: return null
+        return get(identifier, context)
+    }
+
+    @JvmOverloads
+    fun get(id: Identifier, context: RequestContext? = null): Identity? {
+        val entry = cache[id]
+        if (entry != null) {
+            return entry.identity
+        }
+        return fetch(id, context)
+    }
+
+    /**
+     * Returns the identities of [ids]. Duplicate ids are fetched once and those in the [cache] not
+     * at all. The rest are split into chunks that up to [parallelism] workers fetch and deserialize
+     * concurrently, the calling thread being one of them. DAPI has no call that returns several
+     * identities, so each worker still makes one call per id.
+     *
+     * A failed lookup does not stop the others, it is reported in [BulkResult.failures] like an
+     * id that is not a valid [Identifier]. The [context] and the rate limiter priority of the
+     * caller apply to every lookup.
+     */
+    @JvmOverloads
+    fun getMany(ids: Collection<String>, parallelism: Int = DEFAULT_BULK_PARALLELISM, context: RequestContext? = null): BulkResult {
+        require(parallelism > 0) { "the parallelism must be positive" }
+        val uniqueIds = LinkedHashSet(ids)
+        val found = ConcurrentHashMap<String, Identity>()
+        val failures = ConcurrentLinkedQueue<BulkResult.Failure>()
+
+        val pending = ArrayList<Pair<String, Identifier>>()
+        for (id in uniqueIds) {
+            val identifier = try {
+                Identifier.fromBase58(id)
+            } catch (e: IllegalArgumentException) {
+                failures.add(BulkResult.Failure(id, e))
+                continue
+            }
+            val entry = cache[identifier]
+            if (entry == null) {
+                pending.add(Pair(id, identifier))
+            } else {
+                entry.identity?.let { found[id] = it }
+            }
+        }
+
+        if (pending.isNotEmpty()) {
+            val chunkSize = Math.max(1, Math.min(BULK_CHUNK_SIZE, (pending.size + parallelism - 1) / parallelism))
+            val chunks = pending.chunked(chunkSize)
+            val queue = ConcurrentLinkedQueue(chunks)
+            // the gRPC context carries the deadline, cancellation and priority over to the workers
+            val worker = Context.current().wrap(Runnable {
+                while (true) {
+                    val chunk = queue.poll() ?: break
+                    for ((id, identifier) in chunk) {
+                        try {
+                            fetch(identifier, context)?.let { found[id] = it }
+                        } catch (e: Exception) {
+                            failures.add(BulkResult.Failure(id, e))
+                        }
+                    }
+                }
+            })
+            val helpers = (1 until Math.min(parallelism, chunks.size)).map { bulkExecutor.submit(worker) }
+            worker.run()
+            try {
+                helpers.forEach { it.get() }
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
         }
+
+        val identities = LinkedHashMap<String, Identity>()
+        for (id in uniqueIds) {
+            found[id]?.let { identities[id] = it }
+        }
+        return BulkResult(identities, failures.toList())
+    }
+
+    /**
+     * Fetches the identity [id] from Platform, bypassing the [cache], and caches the result. An
+     * [id] that is not a valid [Identifier] is not found.
+     */
+    @JvmOverloads
+    fun fetch(id: String, context: RequestContext? = null): Identity? {
+        val identifier = Identifier.fromBase58OrNull(id) ?: return null
+        return fetch(identifier, context)
+    }
+
+    @JvmOverloads
+    fun fetch(id: Identifier, context: RequestContext? = null): Identity? {
+        val identityBuffer = platform.call(context, RateLimiter.RpcType.GET_IDENTITY) { platform.client.getIdentity(id.toBase58()) }
+        val identity = identityBuffer?.let { platform.dpp.identity.createFromSerialized(it.toByteArray()) }
+        cache.put(id, identity)
+        return identity
     }
 
-    fun get(id: String): Identity? {
-        val identityBuffer = platform.client.getIdentity(id) ?: return null
-        return platform.dpp.identity.createFromSerialized(identityBuffer.toByteArray());
+    /**
+     * Returns the balance of the identity [id], or null if it does not exist.
+     *
+     * The balance of a cached identity is refreshed more often than the identity itself. DAPI has
+     * no call for the balance alone, so a refresh fetches the identity but only its balance is
+     * copied to the cached instance, which keeps its place in the cache. An [id] that is not a
+     * valid [Identifier] does not exist.
+     */
+    @JvmOverloads
+    fun getBalance(id: String, context: RequestContext? = null): Long? {
+        val identifier = Identifier.fromBase58OrNull(id) ?: return null
+        return getBalance(identifier, context)
+    }
+
+    @JvmOverloads
+    fun getBalance(id: Identifier, context: RequestContext? = null): Long? {
+        val entry = cache[id]
+        if (entry != null && (entry.identity == null || cache.isBalanceCurrent(entry))) {
+            return entry.identity?.balance
+        }
+        val identityBuffer = platform.call(context, RateLimiter.RpcType.GET_IDENTITY) { platform.client.getIdentity(id.toBase58()) }
+        if (identityBuffer == null) {
+            cache.put(id, null)
+            return null
+        }
+        val identity = platform.dpp.identity.createFromSerialized(identityBuffer.toByteArray())
+        if (entry != null) {
+            cache.updateBalance(id, identity.balance)
+        } else {
+            cache.put(id, identity)
+        }
+        return identity.balance
     }
 }
\ No newline at end of file
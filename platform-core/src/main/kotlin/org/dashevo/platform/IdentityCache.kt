@@ -0,0 +1,106 @@
+package org.dashevo.platform
+
+import org.dashevo.dpp.identity.Identity
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A bounded cache of the identities fetched from Platform.
+ *
+ * Identities that were found are kept for [ttlMillis], their balance is considered current for
+ * the shorter [balanceTtlMillis]. Ids that were not found are kept as negative entries for
+ * [negativeTtlMillis], so that polling for an identity that is not registered yet does not
+ * reach the network on every call. The least recently used entries are evicted beyond [maxSize].
+ *
+ * The cached [Identity] instances are not copied, every caller of [Identities.get] and
+ * [Identities.getMany] receives the same instance. Callers must treat them as read only.
+ * [updateBalance] is the one writer, so the balance of an identity that a caller holds can
+ * change under it; copy the identity first when a stable balance is needed.
+ *
+ * @property ttlMillis Long how long an identity is used without fetching it again
+ * @property balanceTtlMillis Long how long the balance of a cached identity is current
+ * @property negativeTtlMillis Long how long an id is known not to exist
+ * @property maxSize Int
+ */
+class IdentityCache @JvmOverloads constructor(
+    val ttlMillis: Long = TimeUnit.MINUTES.toMillis(10),
+    val balanceTtlMillis: Long = TimeUnit.SECONDS.toMillis(30),
+    val negativeTtlMillis: Long = TimeUnit.SECONDS.toMillis(5),
+    val maxSize: Int = 10000
+) {
+
+    /**
+     * A cached lookup result
+     *
+     * @property identity Identity? the identity, null if it was not found
+     */
+    class Entry internal constructor(val identity: Identity?, val fetchedAt: Long) {
+        @Volatile
+        var balanceRefreshedAt: Long = fetchedAt
+            internal set
+    }
+
+    private val entries = object : LinkedHashMap<Identifier, IdentityCache.Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Identifier, IdentityCache.Entry>?): Boolean {
+            return size > maxSize
+        }
+    }
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    val hitCount: Long
+        get() = hits.get()
+
+    val missCount: Long
+        get() = misses.get()
+
+    val size: Int
+        get() = synchronized(entries) { entries.size }
+
+    /** Returns the entry of [id] if it has not expired, a negative entry has a null identity */
+    operator fun get(id: Identifier): Entry? {
+        val now = System.currentTimeMillis()
+        val entry = synchronized(entries) {
+            val entry = entries[id]
+            if (entry != null && now - entry.fetchedAt >= (if (entry.identity != null) ttlMillis else negativeTtlMillis)) {
+                entries.remove(id)
+                null
+            } else entry
+        }
+        if (entry != null) hits.incrementAndGet() else misses.incrementAndGet()
+        return entry
+    }
+
+    /** Caches the result of fetching [id], [identity] is null if it was not found */
+    fun put(id: Identifier, identity: Identity?) {
+        val entry = Entry(identity, System.currentTimeMillis())
+        synchronized(entries) { entries[id] = entry }
+    }
+
+    fun isBalanceCurrent(entry: Entry): Boolean {
+        return System.currentTimeMillis() - entry.balanceRefreshedAt < balanceTtlMillis
+    }
+
+    /** Sets the balance of the cached identity of [id], if there is one */
+    fun updateBalance(id: Identifier, balance: Long) {
+        val entry = synchronized(entries) { entries[id] } ?: return
+        val identity = entry.identity ?: return
+        identity.balance = balance
+        entry.balanceRefreshedAt = System.currentTimeMillis()
+    }
+
+    fun invalidate(id: Identifier) {
+        synchronized(entries) { entries.remove(id) }
+    }
+
+    fun clear() {
+        synchronized(entries) { entries.clear() }
+        hits.set(0)
+        misses.set(0)
+    }
+
+    override fun toString(): String {
+        return "IdentityCache(size=$size, hits=$hitCount, misses=$missCount)"
+    }
+}
@@ -8,17 +8,52 @@ import org.dashevo.dapiclient.DapiClient
 import org.dashevo.dapiclient.model.DocumentQuery
 import org.dashevo.dpp.document.Document
 import org.dashevo.dpp.identity.Identity
+import org.dashevo.dpp.toHexString
 import org.dashevo.dpp.util.Entropy
 import org.json.JSONObject
-import java.io.ByteArrayOutputStream
 import java.lang.Thread.sleep
 
 class Names (val platform: Platform) {
 
+    /** A name to preorder with [preorder] and then register with [registerNames] */
+    class NameRegistration(val name: String, val identity: Identity, val identityHDPrivateKey: ECKey, val preorderSaltBase58: String)
+
     companion object {
         const val DEFAULT_PARENT_DOMAIN = "dash"
+
+        /** dpns.domain documents by normalized label and parent domain */
+        @JvmField
+        val DOMAIN_QUERY = PreparedDocumentQuery("normalizedLabel == ? AND normalizedParentDomainName == ?")
+
+        /** dpns.domain documents with one of a list of normalized labels under a parent domain */
+        @JvmField
+        val DOMAINS_QUERY = PreparedDocumentQuery("normalizedParentDomainName == ? AND normalizedLabel in ?")
+
+        /** dpns.preorder documents with one of a list of salted domain hashes */
+        @JvmField
+        val PREORDERS_QUERY = PreparedDocumentQuery("saltedDomainHash in ?")
+
+        @JvmStatic
+        fun normalizeName(name: String): Pair<String, String> {
+            val nameSlice = name.indexOf('.')
+            val normalizedParentDomainName =
+                if (nameSlice == -1) "dash" else name.slice(nameSlice + 1..name.length)
+
+            val label = if (nameSlice == -1) name else name.slice(0..nameSlice)
+
+            val normalizedLabel = label.toLowerCase();
+            return Pair(normalizedParentDomainName, normalizedLabel)
+        }
     }
 
+    /** The DPNS preorder document type, resolved once by [Documents.type] */
+    val preorderType: DocumentType
+        get() = platform.documents.type("dpns.preorder")
+
+    /** The DPNS domain document type, resolved once by [Documents.type] */
+    val domainType: DocumentType
+        get() = platform.documents.type("dpns.domain")
+
     fun register(name: String, identity: Identity, identityHDPrivateKey: ECKey): Document
     {
         val dpp = platform.dpp
@@ -37,21 +72,14 @@ class Names (val platform: Platform) {
         val label = if(nameSlice == -1) name else name.slice(0 .. nameSlice)
 
         val normalizedLabel = label.toLowerCase();
-        val fullDomainName = "$normalizedLabel.$normalizedParentDomainName";
 
-        val nameHash = Sha256Hash.twiceOf(fullDomainName.toByteArray())
-        val nameHashHex = nameHash.toString()
+        val nameHash = DpnsHashEngine.nameHash(name)
+        val nameHashHex = nameHash.toHexString()
 
         val preorderSaltBase58 = Entropy.generate();
         val preOrderSaltRaw = Base58.decode(preorderSaltBase58)
 
-        val baos = ByteArrayOutputStream(preOrderSaltRaw.size + nameHash.bytes.size)
-        baos.write(preOrderSaltRaw)
-        baos.write(0x56)
-        baos.write(0x20)
-        baos.write(nameHash.bytes)
-
-        val saltedDomainHash = Sha256Hash.twiceOf(baos.toByteArray()).toString()
+        val saltedDomainHash = DpnsHashEngine.saltedDomainHash(preOrderSaltRaw, nameHash).toHexString()
 
         if (platform.apps["dpns"] == null) {
             throw Error("DPNS is required to register a new name.")
@@ -74,7 +102,7 @@ class Names (val platform: Platform) {
 
         val isValid = preorderTransition.verifySignature(identity.getPublicKeyById(1)!!)
         // @ts-ignore
-        platform.client.applyStateTransition(preorderTransition)
+        platform.applyStateTransition(preorderTransition)
 
         sleep(1000*60)
 
@@ -102,7 +130,7 @@ class Names (val platform: Platform) {
         println(domainTransition.toJSON())
 
         // @ts-ignore
-        platform.client.applyStateTransition(domainTransition)
+        platform.applyStateTransition(domainTransition)
 
         return domainDocument;
 
@@ -119,15 +147,9 @@ class Names (val platform: Platform) {
 
         val identityType = if (identity.type.value == 2) "application" else "user"
 
-        val (normalizedParentDomainName, normalizedLabel) = normalizedNames(name)
-        val fullDomainName = "$normalizedLabel.$normalizedParentDomainName"
-
-        val nameHash = Sha256Hash.twiceOf(fullDomainName.toByteArray())
-        val nameHashHex = nameHash.toString()
-
         val preOrderSaltRaw = Base58.decode(preorderSaltBase58)
 
-        val saltedDomainHash = getSaltedDomainHash(preOrderSaltRaw, nameHash)
+        val saltedDomainHash = Sha256Hash.wrap(DpnsHashEngine.saltedDomainHashForName(preOrderSaltRaw, name))
 
         if (platform.apps["dpns"] == null) {
             throw Error("DPNS is required to register a new name.")
@@ -140,36 +162,48 @@ class Names (val platform: Platform) {
         preorderTransition.sign(identity.getPublicKeyById(1)!!, identityHDPrivateKey.privateKeyAsHex);
 
         return try {
-            platform.client.applyStateTransition(preorderTransition)
+            platform.applyStateTransition(preorderTransition)
             preorderDocument
         } catch (x: Exception) {
             null
         }
     }
 
+    /**
+     * Preorders many names at once. The preorder transitions are all signed in parallel by
+     * [Platform.signer] before they are submitted.
+     *
+     * @return the preorder documents in the order of [registrations], null for those that failed
+     */
+    fun preorder(registrations: List<NameRegistration>): List<Document?> {
+        if (platform.apps["dpns"] == null) {
+            throw Error("DPNS is required to register a new name.")
+        }
+
+        val salts = registrations.map { Base58.decode(it.preorderSaltBase58) }
+        val saltedDomainHashes = DpnsHashEngine.saltedDomainHashes(salts, registrations.map { it.name })
+
+        val preorderDocuments = registrations.mapIndexed { i, registration ->
+            val start = i * DpnsHashEngine.HASH_LENGTH
+            val saltedDomainHash = Sha256Hash.wrap(saltedDomainHashes.copyOfRange(start, start + DpnsHashEngine.HASH_LENGTH))
+            createPreorderDocument(saltedDomainHash, registration.identity)
+        }
+
+        return submit(registrations, preorderDocuments)
+    }
+
     fun createPreorderDocument(
         saltedDomainHash: Sha256Hash,
         identity: Identity
     ): Document {
-        val map = JSONObject("{saltedDomainHash: \"5620$saltedDomainHash\"}").toMap()
+        val fields = HashMap<String, Any?>(1)
+        fields["saltedDomainHash"] = "5620$saltedDomainHash"
 
-        val preorderDocument = platform.documents.create(
-            "dpns.preorder",
-            identity,
-            map
-        )
-        return preorderDocument
+        return preorderType.create(identity, fields)
     }
 
     fun normalizedNames(name: String): Pair<String, String> {
-        val nameSlice = name.indexOf('.')
-        val normalizedParentDomainName =
-            if (nameSlice == -1) "dash" else name.slice(nameSlice + 1..name.length)
-
-        val label = if (nameSlice == -1) name else name.slice(0..nameSlice)
-
-        val normalizedLabel = label.toLowerCase();
-        return Pair(normalizedParentDomainName, normalizedLabel)
+        return normalizeName(name)
     }
 
     private fun getLabel(name: String): String {
@@ -188,33 +222,35 @@ class Names (val platform: Platform) {
         preOrderSaltRaw: ByteArray,
         nameHash: Sha256Hash
     ): ByteArray {
-        return getSaltedDomainHash(preOrderSaltRaw, nameHash).bytes
+        return DpnsHashEngine.saltedDomainHash(preOrderSaltRaw, nameHash.bytes)
     }
 
     fun getSaltedDomainHashBytes(
         preOrderSaltRaw: ByteArray,
         name: String
     ): ByteArray {
-        return getSaltedDomainHash(preOrderSaltRaw, nameHash(name)).bytes
+        return DpnsHashEngine.saltedDomainHashForName(preOrderSaltRaw, name)
+    }
+
+    /**
+     * Computes the salted domain hashes of many names at once, see [DpnsHashEngine.saltedDomainHashes]
+     */
+    fun getSaltedDomainHashesBytes(
+        preOrderSaltsRaw: List<ByteArray>,
+        names: List<String>
+    ): ByteArray {
+        return DpnsHashEngine.saltedDomainHashes(preOrderSaltsRaw, names)
     }
 
     fun getSaltedDomainHash(
         preOrderSaltRaw: ByteArray,
         nameHash: Sha256Hash
     ): Sha256Hash {
-        val baos = ByteArrayOutputStream(preOrderSaltRaw.size + nameHash.bytes.size)
-        baos.write(preOrderSaltRaw)
-        baos.write(0x56)
-        baos.write(0x20)
-        baos.write(nameHash.bytes)
-
-        return Sha256Hash.twiceOf(baos.toByteArray())
+        return Sha256Hash.wrap(DpnsHashEngine.saltedDomainHash(preOrderSaltRaw, nameHash.bytes))
     }
 
     fun nameHash(name: String): Sha256Hash {
-        val (normalizedParentDomainName, normalizedLabel) = normalizedNames(name)
-        val fullDomainName = "$normalizedLabel.$normalizedParentDomainName"
-        return Sha256Hash.twiceOf(fullDomainName.toByteArray())
+        return Sha256Hash.wrap(DpnsHashEngine.nameHash(name))
     }
 
     fun registerName(name: String, identity: Identity, identityHDPrivateKey: ECKey, preorderSaltBase58: String, preorder: Document): Document? {
@@ -229,11 +265,43 @@ class Names (val platform: Platform) {
         println(domainTransition.toJSON())
 
         // @ts-ignore
-        platform.client.applyStateTransition(domainTransition)
+        platform.applyStateTransition(domainTransition)
 
         return domainDocument;
     }
 
+    /**
+     * Registers the domains of many preordered names at once. The domain transitions are all
+     * signed in parallel by [Platform.signer] before they are submitted.
+     *
+     * @return the domain documents in the order of [registrations], null for those that failed
+     */
+    fun registerNames(registrations: List<NameRegistration>): List<Document?> {
+        val domainDocuments = registrations.map {
+            createDomainDocument(it.identity, it.name, it.preorderSaltBase58)
+        }
+
+        return submit(registrations, domainDocuments)
+    }
+
+    private fun submit(registrations: List<NameRegistration>, documents: List<Document>): List<Document?> {
+        val signingRequests = registrations.mapIndexed { i, registration ->
+            StateTransitionSigner.SigningRequest(platform.dpp.document.createStateTransition(listOf(documents[i])),
+                registration.identity.getPublicKeyById(1)!!, registration.identityHDPrivateKey.privateKeyAsHex)
+        }
+
+        platform.signer.signAll(signingRequests)
+
+        return signingRequests.mapIndexed { i, signingRequest ->
+            try {
+                platform.applyStateTransition(signingRequest.transition)
+                documents[i]
+            } catch (x: Exception) {
+                null
+            }
+        }
+    }
+
     fun createDomainDocument(
         identity: Identity,
         name: String,
@@ -243,10 +311,8 @@ class Names (val platform: Platform) {
         records["dashIdentity"] = identity.id
 
         val (normalizedParentDomainName, normalizedLabel) = normalizedNames(name)
-        val fullDomainName = "$normalizedLabel.$normalizedParentDomainName"
 
-        val nameHash = Sha256Hash.twiceOf(fullDomainName.toByteArray())
-        val nameHashHex = nameHash.toString()
+        val nameHashHex = DpnsHashEngine.nameHash(name).toHexString()
 
         val fields = HashMap<String, Any?>(6);
         fields["nameHash"] = "5620$nameHashHex"
@@ -257,29 +323,29 @@ class Names (val platform: Platform) {
         fields["records"] = records
 
         // 3. Create domain document
-        val domainDocument = platform.documents.create(
-            "dpns.domain",
-            identity,
-            fields
-        )
-        return domainDocument
+        return domainType.create(identity, fields)
     }
 
     private fun getDocumentQuery(name: String, parentDomain: String = DEFAULT_PARENT_DOMAIN): DocumentQuery {
-        return DocumentQuery.Builder()
-            .where(listOf("normalizedLabel", "==", name.toLowerCase()))
-            .where(listOf("normalizedParentDomainName", "==", parentDomain))
-            .build()
+        return DOMAIN_QUERY.bind(name.toLowerCase(), parentDomain)
     }
 
     fun get(name: String): Document? {
         return get(name, DEFAULT_PARENT_DOMAIN)
     }
 
-    fun get(name: String, parentDomain: String): Document? {
+    fun get(name: String, context: RequestContext?): Document? {
+        return get(name, DEFAULT_PARENT_DOMAIN, context)
+    }
+
+    @JvmOverloads
+    fun get(name: String, parentDomain: String, context: RequestContext? = null): Document? {
 
         try{
-            val documents = platform.documents.get("dpns.domain", getDocumentQuery(name, parentDomain));
+            // name lookups are latency sensitive, so they are admitted ahead of scans and monitors
+            val documents = RateLimiter.withPriority(RateLimiter.RequestPriority.INTERACTIVE) {
+                platform.documents.get("dpns.domain", getDocumentQuery(name, parentDomain), context)
+            }
             return if(documents != null && documents.isNotEmpty()) documents[0] else null;
         } catch (e: Exception) {
             throw e;
@@ -10,6 +10,7 @@ import org.dashevo.dpp.DataProvider
 import org.dashevo.dpp.contract.Contract
 import org.dashevo.dpp.document.Document
 import org.dashevo.dpp.identity.Identity
+import org.dashevo.dpp.statetransition.StateTransition
 
 class Platform(val params: NetworkParameters) {
 
@@ -38,17 +39,39 @@ class Platform(val params: NetworkParameters) {
     val identities = Identities(this)
     var names = Names(this)
     lateinit var client: DapiClient
+    /** The masternode used by [client], which is also the key of its rate limiting buckets */
+    var masternodeAddress: String = ""
+    val rateLimiter = RateLimiter()
+    val signer = StateTransitionSigner()
+    val documentValidators = DocumentValidatorCache()
 
     init {
         if(params.id.contains("evonet")) {
             apps["dpns"] = ContractInfo("77w8Xqn25HwJhjodrHW133aXhjuTsTv9ozQaYpSHACE3")
-            client = DapiClient(EvoNetParams.MASTERNODES[1], true)
+            masternodeAddress = EvoNetParams.MASTERNODES[1]
+            client = DapiClient(masternodeAddress, true)
         } else if(params.id.contains("mobile")){
             apps["dpns"] = ContractInfo("ForwNrvKy8jdyoCNTYBK4gcV6o15n79DmFQio2gGac5p")
             apps["dashpay"] = ContractInfo("FW2BGfVdTLgGWGkJRjC838MPpEcL2cSfkNkwao8ooxm5")
-            client = DapiClient(MobileDevNetParams.MASTERNODES[1], true)
+            masternodeAddress = MobileDevNetParams.MASTERNODES[1]
+            client = DapiClient(masternodeAddress, true)
 
         }
     }
 
+    fun applyStateTransition(stateTransition: StateTransition) {
+        call(null, RateLimiter.RpcType.APPLY_STATE_TRANSITION) { client.applyStateTransition(stateTransition) }
+    }
+
+    /**
+     * Runs the DAPI call [block] under [context] when one is given, so that its deadline and
+     * cancellation are applied, after waiting for the [rateLimiter] to admit a call of [rpcType]
+     */
+    internal fun <T> call(context: RequestContext?, rpcType: RateLimiter.RpcType, block: () -> T): T {
+        val limited = {
+            rateLimiter.acquire(masternodeAddress, rpcType)
+            block()
+        }
+        return if (context != null) context.run(limited) else limited()
+    }
 }
\ No newline at end of file
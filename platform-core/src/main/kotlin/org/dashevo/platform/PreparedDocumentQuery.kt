@@ -0,0 +1,145 @@
+package org.dashevo.platform
+
+import org.dashevo.dapiclient.model.DocumentQuery
+
+/**
+ * A [DocumentQuery] template whose where clause is parsed once and then bound to values.
+ *
+ * The template is a list of `field operator operand` clauses joined by `AND`, where an operand is
+ * either a `?` parameter, a quoted string, a number, `true` or `false`. An `AND` within a quoted
+ * string is part of the string:
+ *
+ *     normalizedLabel == ? AND normalizedParentDomainName == 'dash'
+ *
+ * Clauses without a parameter are built once and shared by every query. The most recent
+ * [cacheSize] bindings of strings, numbers and booleans are remembered, so looking up the same
+ * values again returns the query that was already built. Bindings with any other value, such as
+ * the list of an `in ?` clause or a byte array, are built every time and not cached: a list can
+ * be changed by the caller after it was used as a key, arrays do not compare by content, and
+ * such bindings are rarely repeated anyway.
+ *
+ * @property template String
+ * @property limit Int the limit of each query, 0 to leave it unset
+ * @property cacheSize Int the number of bound queries to remember
+ */
+class PreparedDocumentQuery @JvmOverloads constructor(
+    val template: String,
+    val limit: Int = 0,
+    val cacheSize: Int = 256
+) {
+
+    companion object {
+        private val OPERATORS = setOf("<", "<=", "==", ">", ">=", "in", "startsWith", "elementMatch", "length", "contains")
+        private val CLAUSE = Regex("""^\s*(\S+)\s+(\S+)\s+(.+?)\s*$""")
+        private val AND = Regex("""\s+AND\s+""").toPattern()
+    }
+
+    private object Parameter
+
+    /** The clauses of the where clause, with [Parameter] for the operands to bind */
+    private val clauses: List<List<Any>>
+
+    /** The indices in [clauses] of the clauses that have a parameter */
+    private val parameterIndices: IntArray
+
+    val parameterCount: Int
+        get() = parameterIndices.size
+
+    private val queries = object : LinkedHashMap<List<Any>, DocumentQuery>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<List<Any>, DocumentQuery>?): Boolean {
+            return size > cacheSize
+        }
+    }
+
+    init {
+        clauses = splitClauses().map { parseClause(it) }
+        parameterIndices = clauses.indices.filter { clauses[it][2] === Parameter }.toIntArray()
+    }
+
+    /** Splits the template at each `AND` that is not within a quoted string */
+    private fun splitClauses(): List<String> {
+        val clauses = ArrayList<String>()
+        val and = AND.matcher(template)
+        var quote: Char? = null
+        var start = 0
+        var i = 0
+        while (i < template.length) {
+            val c = template[i]
+            if (quote != null) {
+                if (c == quote) quote = null
+            } else if (c == '\'' || c == '"') {
+                quote = c
+            } else if (c.isWhitespace() && and.region(i, template.length).lookingAt()) {
+                clauses.add(template.substring(start, i))
+                start = and.end()
+                i = start
+                continue
+            }
+            i++
+        }
+        require(quote == null) { "Unterminated string in: $template" }
+        clauses.add(template.substring(start))
+        return clauses
+    }
+
+    private fun parseClause(clause: String): List<Any> {
+        val match = CLAUSE.matchEntire(clause) ?: throw IllegalArgumentException("Invalid where clause: $clause")
+        val (field, operator, operand) = match.destructured
+        require(operator in OPERATORS) { "Unknown operator $operator in: $clause" }
+        return listOf(field, operator, parseOperand(operand))
+    }
+
+    private fun parseOperand(operand: String): Any {
+        return when {
+            operand == "?" -> Parameter
+            operand == "true" -> true
+            operand == "false" -> false
+            operand.length >= 2 && (operand[0] == '\'' || operand[0] == '"') && operand.last() == operand[0] ->
+                operand.substring(1, operand.length - 1)
+            else -> operand.toLongOrNull() ?: operand.toDoubleOrNull()
+                ?: throw IllegalArgumentException("Invalid operand $operand in: $template")
+        }
+    }
+
+    /**
+     * Returns the query with the parameters of the template set to [values], in order
+     *
+     * @throws IllegalArgumentException if the number of values does not match [parameterCount]
+     */
+    fun bind(vararg values: Any): DocumentQuery {
+        require(values.size == parameterIndices.size) {
+            "$template takes ${parameterIndices.size} values, not ${values.size}"
+        }
+        val key = if (values.all { isCacheable(it) }) values.toList() else null
+        if (key != null) {
+            synchronized(queries) { queries[key] }?.let { return it }
+        }
+
+        val builder = DocumentQuery.Builder()
+        var next = 0
+        for ((i, clause) in clauses.withIndex()) {
+            if (next < parameterIndices.size && parameterIndices[next] == i) {
+                builder.where(listOf(clause[0], clause[1], values[next++]))
+            } else {
+                builder.where(clause)
+            }
+        }
+        if (limit > 0) {
+            builder.limit(limit)
+        }
+        val query = builder.build()
+        if (key != null) {
+            synchronized(queries) { queries[key] = query }
+        }
+        return query
+    }
+
+    /** Only immutable values that compare by content can be part of a cache key */
+    private fun isCacheable(value: Any): Boolean {
+        return value is String || value is Number || value is Boolean || value is Char
+    }
+
+    override fun toString(): String {
+        return "PreparedDocumentQuery($template)"
+    }
+}
@@ -0,0 +1,42 @@
+package org.dashevo.platform
+
+/**
+ * The fields of a document read through a [DocumentProjection], stored in the order of
+ * [DocumentProjection.fields]
+ */
+class ProjectedDocument internal constructor(val projection: DocumentProjection, private val values: Array<Any?>) {
+
+    /**
+     * Returns the value of [field], null if the document does not have it
+     *
+     * @throws IllegalArgumentException if [field] is not part of [projection]
+     */
+    operator fun get(field: String): Any? {
+        val index = projection.indexOf(field)
+        require(index >= 0) { "$field is not part of $projection" }
+        return values[index]
+    }
+
+    fun getString(field: String): String? {
+        return get(field) as? String
+    }
+
+    /** The owner of the document, if `$userId` is part of [projection] */
+    val userId: String?
+        get() {
+            val index = projection.indexOf("\$userId")
+            return if (index >= 0) values[index] as? String else null
+        }
+
+    fun toMap(): Map<String, Any?> {
+        val map = LinkedHashMap<String, Any?>(values.size)
+        for ((i, field) in projection.fields.withIndex()) {
+            map[field] = values[i]
+        }
+        return map
+    }
+
+    override fun toString(): String {
+        return "ProjectedDocument(${toMap()})"
+    }
+}
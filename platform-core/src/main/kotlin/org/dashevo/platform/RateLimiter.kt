@@ -0,0 +1,185 @@
+package org.dashevo.platform
+
+import io.grpc.Context
+import io.grpc.Contexts
+import java.util.EnumMap
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Client side rate limiting of DAPI calls with a token bucket per masternode and per [RpcType].
+ *
+ * No limits are set by default, so calls are only throttled for the RPC types given to [setLimit].
+ * When callers contend for a bucket, tokens go to waiters of the highest [RequestPriority] first.
+ * The priority of a call is taken from the gRPC context, see [withPriority].
+ *
+ * @property nanoTime the clock that tokens are refilled by, [System.nanoTime] outside of tests
+ */
+class RateLimiter internal constructor(private val nanoTime: () -> Long) {
+
+    constructor() : this(System::nanoTime)
+
+    enum class RpcType {
+        GET_IDENTITY,
+        GET_DATA_CONTRACT,
+        GET_DOCUMENTS,
+        APPLY_STATE_TRANSITION
+    }
+
+    /** Ordered from most to least urgent */
+    enum class RequestPriority {
+        INTERACTIVE,
+        NORMAL,
+        BACKGROUND
+    }
+
+    data class Limit(val permitsPerSecond: Double, val burst: Int)
+
+    companion object {
+        private val PRIORITY_KEY = Context.keyWithDefault("dapi-request-priority", RequestPriority.NORMAL)
+
+        /** Runs [block] so that the DAPI calls it makes are rate limited with [priority] */
+        @JvmStatic
+        fun <T> withPriority(priority: RequestPriority, block: () -> T): T {
+            return Context.current().withValue(PRIORITY_KEY, priority).call(Callable { block() })
+        }
+
+        @JvmStatic
+        fun currentPriority(): RequestPriority {
+            return PRIORITY_KEY.get()
+        }
+    }
+
+    private val limits = EnumMap<RpcType, Limit>(RpcType::class.java)
+    private val buckets = ConcurrentHashMap<Pair<String, RpcType>, TokenBucket>()
+
+    /** Sets the limit of [rpcType]. Buckets in use keep their tokens and waiters and take the new limit. */
+    @Synchronized
+    fun setLimit(rpcType: RpcType, permitsPerSecond: Double, burst: Int) {
+        require(permitsPerSecond > 0 && burst > 0) { "the rate and burst must be positive" }
+        val limit = Limit(permitsPerSecond, burst)
+        limits[rpcType] = limit
+        for ((key, bucket) in buckets) {
+            if (key.second == rpcType) {
+                bucket.setLimit(limit)
+            }
+        }
+    }
+
+    /** Removes the limit of [rpcType], releasing the callers that wait for it */
+    @Synchronized
+    fun removeLimit(rpcType: RpcType) {
+        limits.remove(rpcType)
+        val iterator = buckets.entries.iterator()
+        while (iterator.hasNext()) {
+            val (key, bucket) = iterator.next()
+            if (key.second == rpcType) {
+                bucket.setLimit(null)
+                iterator.remove()
+            }
+        }
+    }
+
+    @Synchronized
+    fun getLimit(rpcType: RpcType): Limit? {
+        return limits[rpcType]
+    }
+
+    /**
+     * Blocks until a call of [rpcType] to [node] may proceed.
+     *
+     * @throws io.grpc.StatusRuntimeException if the current gRPC context is cancelled or its
+     * deadline passes while waiting
+     */
+    fun acquire(node: String, rpcType: RpcType, priority: RequestPriority = currentPriority()) {
+        val key = Pair(node, rpcType)
+        var bucket = buckets[key]
+        if (bucket == null) {
+            val limit = getLimit(rpcType) ?: return
+            bucket = buckets.computeIfAbsent(key) { TokenBucket(limit, nanoTime) }
+        }
+        bucket.acquire(priority)
+    }
+
+    /** The number of callers blocked in [acquire] for a call of [rpcType] to [node] */
+    internal fun waitingCount(node: String, rpcType: RpcType): Int {
+        return buckets[Pair(node, rpcType)]?.waitingCount() ?: 0
+    }
+
+    /** A bucket without a limit, after [setLimit] with null, lets every caller through */
+    private class TokenBucket(limit: Limit, val nanoTime: () -> Long) {
+        private val lock = ReentrantLock()
+        private val tokenAvailable = lock.newCondition()
+        private val waiting = IntArray(RequestPriority.values().size)
+        private var limit: Limit? = limit
+        private var tokens = limit.burst.toDouble()
+        private var lastRefillNanos = nanoTime()
+
+        fun setLimit(limit: Limit?) {
+            lock.withLock {
+                refill()
+                this.limit = limit
+                if (limit != null) {
+                    tokens = Math.min(tokens, limit.burst.toDouble())
+                }
+                tokenAvailable.signalAll()
+            }
+        }
+
+        fun acquire(priority: RequestPriority) {
+            lock.withLock {
+                waiting[priority.ordinal]++
+                try {
+                    while (true) {
+                        val context = Context.current()
+                        if (context.isCancelled) {
+                            throw Contexts.statusFromCancelled(context)!!.asRuntimeException()
+                        }
+                        val limit = this.limit ?: return
+                        refill()
+                        if (tokens >= 1.0) {
+                            if (!higherPriorityWaiting(priority)) {
+                                tokens -= 1.0
+                                return
+                            }
+                            // the token is for a waiter of higher priority, which signals when it leaves
+                            tokenAvailable.signalAll()
+                            tokenAvailable.await()
+                        } else {
+                            // wake up when the next token is due, or earlier when the limit changes
+                            val waitNanos = ((1.0 - tokens) / limit.permitsPerSecond * TimeUnit.SECONDS.toNanos(1)).toLong()
+                            tokenAvailable.awaitNanos(Math.max(waitNanos, 1))
+                        }
+                    }
+                } finally {
+                    waiting[priority.ordinal]--
+                    tokenAvailable.signalAll()
+                }
+            }
+        }
+
+        fun waitingCount(): Int {
+            return lock.withLock { waiting.sum() }
+        }
+
+        private fun higherPriorityWaiting(priority: RequestPriority): Boolean {
+            for (i in 0 until priority.ordinal) {
+                if (waiting[i] > 0) return true
+            }
+            return false
+        }
+
+        private fun refill() {
+            val now = nanoTime()
+            val limit = this.limit
+            if (limit != null) {
+                val elapsedSeconds = (now - lastRefillNanos).toDouble() / TimeUnit.SECONDS.toNanos(1)
+                tokens = Math.min(limit.burst.toDouble(), tokens + elapsedSeconds * limit.permitsPerSecond)
+            }
+            lastRefillNanos = now
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.dashevo.platform
+
+import io.grpc.Context
+import io.grpc.Contexts
+import java.io.Closeable
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * A caller controlled deadline and cancellation scope for platform calls.
+ *
+ * Work passed to [run] executes inside a gRPC [Context], so the deadline and any cancellation
+ * reach every DAPI stub called on that thread, including nested lookups such as the contract
+ * fetch done by [Documents.create]. One context may span several calls to enforce an end to end
+ * deadline; call [close] (or [cancel]) when the caller abandons the request.
+ *
+ * @property grpcContext Context.CancellableContext
+ */
+class RequestContext private constructor(private val grpcContext: Context.CancellableContext) : Closeable {
+
+    companion object {
+        private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+            val thread = Thread(runnable, "RequestContext-deadline")
+            thread.isDaemon = true
+            thread
+        }
+
+        /** Creates a context whose calls fail with DEADLINE_EXCEEDED once [timeout] has elapsed */
+        @JvmStatic
+        fun withTimeout(timeout: Long, unit: TimeUnit): RequestContext {
+            return RequestContext(Context.current().withDeadlineAfter(timeout, unit, scheduler))
+        }
+
+        /** Creates a context without a deadline that can only be ended by [cancel] */
+        @JvmStatic
+        fun cancellable(): RequestContext {
+            return RequestContext(Context.current().withCancellation())
+        }
+    }
+
+    val isCancelled: Boolean
+        get() = grpcContext.isCancelled
+
+    /** The time left before the deadline in milliseconds, or null if there is no deadline */
+    val remainingMillis: Long?
+        get() = grpcContext.deadline?.timeRemaining(TimeUnit.MILLISECONDS)
+
+    /**
+     * Runs [block] with this context attached to the current thread.
+     *
+     * The context was forked when it was created, so the request priority of the calling thread,
+     * see [RateLimiter.withPriority], is carried into [block] rather than the one at creation.
+     *
+     * @throws io.grpc.StatusRuntimeException if the context was already cancelled or expired
+     */
+    fun <T> run(block: () -> T): T {
+        if (grpcContext.isCancelled) {
+            throw Contexts.statusFromCancelled(grpcContext)!!.asRuntimeException()
+        }
+        val priority = RateLimiter.currentPriority()
+        return grpcContext.call(Callable { RateLimiter.withPriority(priority, block) })
+    }
+
+    /** Cancels all calls running under this context, releasing client and server resources */
+    fun cancel() {
+        grpcContext.cancel(null)
+    }
+
+    override fun close() {
+        cancel()
+    }
+}
@@ -0,0 +1,72 @@
+package org.dashevo.platform
+
+import org.dashevo.dpp.identity.IdentityPublicKey
+import org.dashevo.dpp.statetransition.StateTransition
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Signs batches of state transitions in parallel.
+ *
+ * ECDSA signing dominates the CPU time of bulk registrations, so [signAll] splits a batch into
+ * [parallelism] chunks that are signed concurrently. Transitions are signed in place and returned
+ * in the order given.
+ *
+ * The signing threads are shared by every signer in the process, one per available processor,
+ * so creating a [Platform] for each identity does not create a pool for each identity.
+ *
+ * @property parallelism Int the number of chunks a batch is split into
+ */
+class StateTransitionSigner @JvmOverloads constructor(
+    val parallelism: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    class SigningRequest(val transition: StateTransition, val publicKey: IdentityPublicKey, val privateKeyHex: String)
+
+    companion object {
+        /** below this batch size the work is done on the calling thread */
+        private const val MIN_PARALLEL_BATCH = 4
+
+        private val executor: ExecutorService by lazy {
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) { runnable ->
+                val thread = Thread(runnable, "StateTransitionSigner")
+                thread.isDaemon = true
+                thread
+            }
+        }
+    }
+
+    fun sign(request: SigningRequest): StateTransition {
+        request.transition.sign(request.publicKey, request.privateKeyHex)
+        return request.transition
+    }
+
+    /**
+     * Signs every transition in [requests]
+     *
+     * @return the signed transitions in the order of [requests]
+     */
+    fun signAll(requests: List<SigningRequest>): List<StateTransition> {
+        if (parallelism <= 1 || requests.size < MIN_PARALLEL_BATCH) {
+            return requests.map { sign(it) }
+        }
+
+        val chunkSize = (requests.size + parallelism - 1) / parallelism
+        val futures = ArrayList<Future<*>>(parallelism)
+        for (start in requests.indices step chunkSize) {
+            val chunk = requests.subList(start, Math.min(start + chunkSize, requests.size))
+            futures.add(executor.submit { chunk.forEach { sign(it) } })
+        }
+        try {
+            for (future in futures) {
+                future.get()
+            }
+        } catch (e: ExecutionException) {
+            futures.forEach { it.cancel(false) }
+            throw e.cause ?: e
+        }
+        return requests.map { it.transition }
+    }
+}
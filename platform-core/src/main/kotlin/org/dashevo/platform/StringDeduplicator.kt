@@ -0,0 +1,171 @@
+package org.dashevo.platform
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Returns one canonical instance for equal strings, so that the copies decoded from many
+ * documents do not each take heap space.
+ *
+ * Document loads repeat a few values over and over, such as the parent domain `dash`, document
+ * types, contract ids and the ids of owners with several documents. The canonical instances are
+ * kept in a table of [tableSize] slots, each holding the last string whose hash maps to it, so
+ * the table stays bounded and a value that stops repeating is replaced by one that does. Unlike
+ * [String.intern] nothing outlives the deduplicator. Strings longer than [maxLength], which are
+ * usually unique hashes, are returned as they are.
+ *
+ * ASCII strings decoded from CBOR are looked up in the table before a String is created, so a
+ * repeated value costs no allocation at all.
+ *
+ * @property tableSize Int the number of slots, rounded up to a power of two
+ * @property maxLength Int the longest string that is deduplicated
+ */
+class StringDeduplicator @JvmOverloads constructor(tableSize: Int = 65536, val maxLength: Int = 64) {
+
+    companion object {
+        /** the header of a String and of its char[] on a 64 bit JVM 8 with compressed oops */
+        private const val STRING_OVERHEAD = 24 + 16
+    }
+
+    val tableSize: Int = Integer.highestOneBit(Math.max(1, tableSize - 1)) shl 1
+
+    private val table = arrayOfNulls<String>(this.tableSize)
+    private val mask = this.tableSize - 1
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val saved = AtomicLong()
+
+    val hitCount: Long
+        get() = hits.get()
+
+    val missCount: Long
+        get() = misses.get()
+
+    /**
+     * An estimate of the heap no longer held by copies: the size of each string that was
+     * replaced by its canonical instance, with a JVM 8 object layout
+     */
+    val savedBytes: Long
+        get() = saved.get()
+
+    fun deduplicate(value: String): String {
+        if (value.length > maxLength) {
+            return value
+        }
+        val slot = spread(value.hashCode()) and mask
+        val canonical = table[slot]
+        if (canonical == value) {
+            hit(canonical)
+            return canonical
+        }
+        misses.incrementAndGet()
+        table[slot] = value
+        return value
+    }
+
+    /** Returns the canonical instance of the UTF-8 string in [bytes] from [offset] to [offset] + [length] */
+    internal fun deduplicate(bytes: ByteArray, offset: Int, length: Int): String {
+        if (length > maxLength) {
+            return String(bytes, offset, length, Charsets.UTF_8)
+        }
+        // the hash of an ASCII string can be computed on its bytes, anything else is decoded first
+        var hash = 0
+        for (i in offset until offset + length) {
+            val b = bytes[i].toInt()
+            if (b < 0) {
+                return deduplicate(String(bytes, offset, length, Charsets.UTF_8))
+            }
+            hash = 31 * hash + b
+        }
+        val slot = spread(hash) and mask
+        val canonical = table[slot]
+        if (canonical != null && equalsAscii(canonical, bytes, offset, length)) {
+            hit(canonical)
+            return canonical
+        }
+        misses.incrementAndGet()
+        val value = String(bytes, offset, length, Charsets.US_ASCII)
+        table[slot] = value
+        return value
+    }
+
+    private fun equalsAscii(value: String, bytes: ByteArray, offset: Int, length: Int): Boolean {
+        if (value.length != length) {
+            return false
+        }
+        for (i in 0 until length) {
+            if (value[i].toInt() != bytes[offset + i].toInt()) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private fun spread(hash: Int): Int {
+        return hash xor (hash ushr 16)
+    }
+
+    private fun hit(canonical: String) {
+        hits.incrementAndGet()
+        saved.addAndGet(((STRING_OVERHEAD + 2L * canonical.length + 7) / 8) * 8)
+    }
+
+    /**
+     * Replaces the string values of [map], including those in nested maps and lists, with their
+     * canonical instances. A read-only map or list, which Kotlin cannot tell from a mutable one,
+     * is left as it is, though the containers nested in it are still deduplicated.
+     */
+    fun deduplicateValues(map: MutableMap<String, Any?>) {
+        var writable = true
+        for (entry in map.entries) {
+            val value = entry.value
+            val canonical = deduplicateValue(value)
+            if (writable && canonical !== value) {
+                try {
+                    entry.setValue(canonical)
+                } catch (e: UnsupportedOperationException) {
+                    writable = false
+                }
+            }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun deduplicateValue(value: Any?): Any? {
+        return when (value) {
+            is String -> deduplicate(value)
+            is MutableMap<*, *> -> {
+                deduplicateValues(value as MutableMap<String, Any?>)
+                value
+            }
+            is MutableList<*> -> {
+                val list = value as MutableList<Any?>
+                var writable = true
+                for (i in list.indices) {
+                    val element = list[i]
+                    val canonical = deduplicateValue(element)
+                    if (writable && canonical !== element) {
+                        try {
+                            list[i] = canonical
+                        } catch (e: UnsupportedOperationException) {
+                            writable = false
+                        }
+                    }
+                }
+                list
+            }
+            else -> value
+        }
+    }
+
+    fun clear() {
+        table.fill(null)
+        hits.set(0)
+        misses.set(0)
+        saved.set(0)
+    }
+
+    override fun toString(): String {
+        return "StringDeduplicator(hits=$hitCount, misses=$missCount, savedBytes=$savedBytes)"
+    }
+}
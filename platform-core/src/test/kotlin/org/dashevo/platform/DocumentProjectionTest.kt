@@ -0,0 +1,60 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+class DocumentProjectionTest {
+
+    // {"$type": "domain", "skipped": [_ 1, h'0102', 1.5, (_ "ab", "c")], "label": "Alice", "$userId": "user",
+    //  "records": {"dashIdentity": "user"}, "n": -500}
+    private val document = hex("a665247479706566646f6d61696e67736b69707065649f01420102f93e007f6261626163ffff656c6162656c" +
+        "65416c69636567247573657249646475736572677265636f726473a16c646173684964656e746974796475736572616e3901f3")
+
+    private fun hex(s: String): ByteArray {
+        return ByteArray(s.length / 2) { s.substring(it * 2, it * 2 + 2).toInt(16).toByte() }
+    }
+
+    @Test
+    fun projectTest() {
+        val projected = DocumentProjection("label", "\$userId", "records", "n", "missing").read(document)
+
+        assertEquals("Alice", projected["label"])
+        assertEquals("user", projected.userId)
+        assertEquals(mapOf("dashIdentity" to "user"), projected["records"])
+        assertEquals(-500, projected["n"])
+        assertNull(projected["missing"])
+        assertThrows(IllegalArgumentException::class.java) { projected["\$type"] }
+    }
+
+    @Test
+    fun indefiniteLengthTest() {
+        val skipped = DocumentProjection("skipped").read(document)["skipped"] as List<*>
+
+        assertEquals(4, skipped.size)
+        assertEquals(1, skipped[0])
+        assertArrayEquals(byteArrayOf(1, 2), skipped[1] as ByteArray)
+        assertEquals(1.5, skipped[2])
+        assertEquals("abc", skipped[3])
+    }
+
+    @Test
+    fun keyBytesTest() {
+        // {"né": 1, "n": 2, (_ "lab", "el"): 3}
+        val map = hex("a3636ec3a901616e027f636c616262656cff03")
+        val projected = DocumentProjection("n", "né", "label").read(map)
+
+        assertEquals(2, projected["n"])
+        assertEquals(1, projected["né"])
+        assertEquals(3, projected["label"])
+    }
+
+    @Test
+    fun truncatedTest() {
+        assertThrows(IllegalArgumentException::class.java) {
+            DocumentProjection("n").read(document.copyOf(document.size - 2))
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+import java.math.BigInteger
+
+class DocumentValidatorTest {
+
+    private val schema = mapOf(
+        "properties" to mapOf(
+            "label" to mapOf("type" to "string", "pattern" to "^[a-zA-Z0-9-]+$", "maxLength" to 63),
+            "records" to mapOf("type" to "object"),
+            "count" to mapOf("type" to "integer")
+        ),
+        "required" to listOf("label", "records"),
+        "additionalProperties" to false
+    )
+
+    private val validator = DocumentValidator("contract", "domain", 1, schema)
+
+    @Test
+    fun validTest() {
+        val errors = validator.validate(mapOf("label" to "Alice-1", "records" to mapOf("dashIdentity" to "id"), "count" to 3))
+        assertTrue(errors.isEmpty(), errors.toString())
+    }
+
+    @Test
+    fun jsonSchemaSemanticsTest() {
+        val records = mapOf<String, Any>()
+        // integers may be decoded as other number types
+        for (count in listOf<Any>(3.0, 3.0f, BigInteger("3"), BigDecimal("3.00"))) {
+            assertTrue(validator.validate(mapOf("label" to "a", "records" to records, "count" to count)).isEmpty(), "$count")
+        }
+        assertEquals(1, validator.validate(mapOf("label" to "a", "records" to records, "count" to 3.5)).size)
+        // the length is in characters, an emoji is two UTF-16 units
+        val validatorWithEmoji = DocumentValidator("contract", "note", 1,
+            mapOf("properties" to mapOf("text" to mapOf("type" to "string", "maxLength" to 1))))
+        assertTrue(validatorWithEmoji.validate(mapOf("text" to "\uD83D\uDE00")).isEmpty())
+        assertEquals(1, validatorWithEmoji.validate(mapOf("text" to "ab")).size)
+    }
+
+    @Test
+    fun invalidTest() {
+        assertEquals(1, validator.validate(mapOf("records" to mapOf<String, Any>())).size)
+        assertEquals(1, validator.validate(mapOf("label" to "a.b", "records" to mapOf<String, Any>())).size)
+        assertEquals(1, validator.validate(mapOf("label" to "a".repeat(64), "records" to mapOf<String, Any>())).size)
+        assertEquals(1, validator.validate(mapOf("label" to "a", "records" to "r")).size)
+        assertEquals(1, validator.validate(mapOf("label" to "a", "records" to mapOf<String, Any>(), "other" to 1)).size)
+        // records is missing, label and count have the wrong type
+        assertEquals(3, validator.validate(mapOf("label" to 1, "count" to "3")).size)
+    }
+}
@@ -0,0 +1,59 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.security.MessageDigest
+import java.util.*
+
+class DpnsHashEngineTest {
+
+    private fun doubleSha256(data: ByteArray): ByteArray {
+        val digest = MessageDigest.getInstance("SHA-256")
+        return digest.digest(digest.digest(data))
+    }
+
+    private fun toHex(bytes: ByteArray): String {
+        return bytes.joinToString("") { String.format("%02x", it) }
+    }
+
+    private fun referenceSaltedDomainHash(salt: ByteArray, name: String): ByteArray {
+        val nameHash = doubleSha256("${name.toLowerCase()}.dash".toByteArray())
+        return doubleSha256(salt + byteArrayOf(0x56, 0x20) + nameHash)
+    }
+
+    @Test
+    fun nameHashTest() {
+        // nameHash of a domain document registered on evonet
+        assertEquals("8aa0e20263e5dc787c3cb8a3f99cbc60701af2b2a5fa39e13d627e53bbb66b8a",
+            toHex(DpnsHashEngine.nameHash("test-Adeline73")))
+    }
+
+    @Test
+    fun saltedDomainHashTest() {
+        val random = Random(1)
+        for (length in listOf(1, 20, 63, 200)) {
+            val salt = ByteArray(length)
+            random.nextBytes(salt)
+            val name = "HashEngineering$length"
+            val expected = referenceSaltedDomainHash(salt, name)
+            assertArrayEquals(expected, DpnsHashEngine.saltedDomainHashForName(salt, name))
+            assertArrayEquals(expected, DpnsHashEngine.saltedDomainHash(salt, DpnsHashEngine.nameHash(name)))
+        }
+    }
+
+    @Test
+    fun batchTest() {
+        val random = Random(2)
+        val names = (0 until 50).map { "user-$it" }
+        val salts = names.map { ByteArray(25).also { salt -> random.nextBytes(salt) } }
+
+        val hashes = DpnsHashEngine.saltedDomainHashes(salts, names)
+
+        assertEquals(names.size * DpnsHashEngine.HASH_LENGTH, hashes.size)
+        for (i in names.indices) {
+            val hash = hashes.copyOfRange(i * DpnsHashEngine.HASH_LENGTH, (i + 1) * DpnsHashEngine.HASH_LENGTH)
+            assertArrayEquals(referenceSaltedDomainHash(salts[i], names[i]), hash)
+        }
+    }
+}
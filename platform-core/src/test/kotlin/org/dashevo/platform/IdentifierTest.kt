@@ -0,0 +1,56 @@
+package org.dashevo.platform
+
+import org.bitcoinj.core.Sha256Hash
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class IdentifierTest {
+
+    private val base58 = "ForwNrvKy8jdyoCNTYBK4gcV6o15n79DmFQio2gGac5p"
+
+    @Test
+    fun roundTripTest() {
+        val identifier = Identifier.fromBase58(base58)
+        assertSame(base58, identifier.toBase58())
+
+        val copy = Identifier.from(identifier.getBytes())
+        assertEquals(identifier, copy)
+        assertEquals(identifier.hashCode(), copy.hashCode())
+        assertEquals(base58, copy.toBase58())
+        assertSame(copy.toBase58(), copy.toBase58())
+        assertEquals(64, copy.toHex().length)
+        assertEquals(identifier, Identifier.from(identifier.toSha256Hash()))
+    }
+
+    @Test
+    fun compareTest() {
+        val low = Identifier.from(ByteArray(Identifier.LENGTH))
+        val high = Identifier.from(ByteArray(Identifier.LENGTH) { if (it == 31) 0x80.toByte() else 0 })
+        assertNotEquals(low, high)
+        assertTrue(low < high)
+        assertEquals(0, low.compareTo(Identifier.from(ByteArray(Identifier.LENGTH))))
+    }
+
+    @Test
+    fun immutableTest() {
+        val bytes = Sha256Hash.of(byteArrayOf(1)).bytes
+        val identifier = Identifier.from(bytes)
+        bytes[0]++
+        identifier.getBytes()[1]++
+        assertArrayEquals(Sha256Hash.of(byteArrayOf(1)).bytes, identifier.getBytes())
+    }
+
+    @Test
+    fun invalidTest() {
+        assertThrows(IllegalArgumentException::class.java) { Identifier.from(ByteArray(20)) }
+        assertThrows(IllegalArgumentException::class.java) { Identifier.fromBase58("abc") }
+        assertNull(Identifier.fromBase58OrNull("abc"))
+        assertNull(Identifier.fromBase58OrNull("0OIl"))
+    }
+}
@@ -0,0 +1,54 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+class IdentityCacheTest {
+
+    private val id = Identifier.from(ByteArray(Identifier.LENGTH) { 1 })
+    private val a = Identifier.from(ByteArray(Identifier.LENGTH) { 2 })
+    private val b = Identifier.from(ByteArray(Identifier.LENGTH) { 3 })
+    private val c = Identifier.from(ByteArray(Identifier.LENGTH) { 4 })
+
+    @Test
+    fun negativeEntryTest() {
+        val cache = IdentityCache(negativeTtlMillis = 50)
+        assertNull(cache[id])
+        cache.put(id, null)
+
+        val entry = cache[id]
+        assertNotNull(entry)
+        assertNull(entry!!.identity)
+        assertEquals(1, cache.hitCount)
+        assertEquals(1, cache.missCount)
+
+        // negative entries expire after their own, shorter ttl
+        Thread.sleep(80)
+        assertNull(cache[id])
+        assertEquals(0, cache.size)
+    }
+
+    @Test
+    fun invalidateTest() {
+        val cache = IdentityCache()
+        cache.put(id, null)
+        cache.invalidate(id)
+        assertNull(cache[id])
+    }
+
+    @Test
+    fun evictLeastRecentlyUsedTest() {
+        val cache = IdentityCache(maxSize = 2)
+        cache.put(a, null)
+        cache.put(b, null)
+        cache[a]
+        cache.put(c, null)
+
+        assertEquals(2, cache.size)
+        assertNotNull(cache[a])
+        assertNull(cache[b])
+        assertNotNull(cache[c])
+    }
+}
@@ -0,0 +1,48 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+class PreparedDocumentQueryTest {
+
+    @Test
+    fun parseTest() {
+        assertEquals(2, PreparedDocumentQuery("normalizedLabel == ? AND normalizedParentDomainName == ?").parameterCount)
+        assertEquals(1, PreparedDocumentQuery("normalizedLabel in ? AND normalizedParentDomainName == 'dash'").parameterCount)
+        assertEquals(0, PreparedDocumentQuery("count >= 10 AND enabled == true").parameterCount)
+    }
+
+    @Test
+    fun quotedAndTest() {
+        val query = PreparedDocumentQuery("name == 'Salt AND Pepper' AND kind == ? AND note == \"a AND b\"").bind("shop")
+        assertEquals(listOf(listOf("name", "==", "Salt AND Pepper"), listOf("kind", "==", "shop"),
+            listOf("note", "==", "a AND b")), query.where)
+    }
+
+    @Test
+    fun invalidTemplateTest() {
+        assertThrows(IllegalArgumentException::class.java) { PreparedDocumentQuery("normalizedLabel ~ ?") }
+        assertThrows(IllegalArgumentException::class.java) { PreparedDocumentQuery("normalizedLabel ==") }
+        assertThrows(IllegalArgumentException::class.java) { PreparedDocumentQuery("normalizedLabel == dash") }
+        assertThrows(IllegalArgumentException::class.java) { PreparedDocumentQuery("name == 'a AND b == ?") }
+        assertThrows(IllegalArgumentException::class.java) { PreparedDocumentQuery("normalizedLabel == ?").bind("a", "b") }
+    }
+
+    @Test
+    fun cacheTest() {
+        val query = PreparedDocumentQuery("normalizedLabel == ? AND normalizedParentDomainName == ?")
+        assertSame(query.bind("alice", "dash"), query.bind("alice", "dash"))
+        assertNotSame(query.bind("alice", "dash"), query.bind("bob", "dash"))
+
+        // a list can change after the call, so it is never used as a key
+        val labels = mutableListOf("alice", "bob")
+        val inQuery = PreparedDocumentQuery("normalizedLabel in ? AND normalizedParentDomainName == 'dash'")
+        val first = inQuery.bind(labels)
+        labels.add("carol")
+        assertNotSame(first, inQuery.bind(labels))
+        assertNotSame(inQuery.bind(byteArrayOf(1)), inQuery.bind(byteArrayOf(1)))
+    }
+}
@@ -0,0 +1,137 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.Collections
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+class RateLimiterTest {
+
+    @Test
+    fun unlimitedTest() {
+        val rateLimiter = RateLimiter()
+        val start = System.nanoTime()
+        for (i in 0 until 1000) {
+            rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS)
+        }
+        assertTrue(System.nanoTime() - start < 1_000_000_000L)
+    }
+
+    @Test
+    fun burstThenThrottleTest() {
+        val rateLimiter = RateLimiter()
+        rateLimiter.setLimit(RateLimiter.RpcType.GET_DOCUMENTS, 20.0, 5)
+
+        val start = System.nanoTime()
+        for (i in 0 until 5) {
+            rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS)
+        }
+        val burstMillis = (System.nanoTime() - start) / 1_000_000
+        assertTrue(burstMillis < 40, "the burst should not wait: $burstMillis ms")
+
+        for (i in 0 until 4) {
+            rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS)
+        }
+        val totalMillis = (System.nanoTime() - start) / 1_000_000
+        assertTrue(totalMillis >= 150, "4 calls past the burst at 20/s should take ~200 ms: $totalMillis ms")
+
+        // other nodes and RPC types have their own buckets
+        rateLimiter.acquire("other", RateLimiter.RpcType.GET_DOCUMENTS)
+        rateLimiter.acquire("node", RateLimiter.RpcType.GET_IDENTITY)
+    }
+
+    @Test
+    fun priorityTest() {
+        val order = contendedOrder { rateLimiter, priority ->
+            rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS, priority)
+        }
+        assertEquals(4, order.size)
+        assertEquals(RateLimiter.RequestPriority.INTERACTIVE, order[0])
+    }
+
+    @Test
+    fun requestContextPriorityTest() {
+        // the priority set around a RequestContext reaches acquire, although the context was created outside it
+        val context = RequestContext.cancellable()
+        val order = contendedOrder { rateLimiter, priority ->
+            RateLimiter.withPriority(priority) {
+                context.run { rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS) }
+            }
+        }
+        assertEquals(4, order.size)
+        assertEquals(RateLimiter.RequestPriority.INTERACTIVE, order[0])
+    }
+
+    @Test
+    fun changeLimitWhileWaitingTest() {
+        val clock = AtomicLong()
+        val rateLimiter = RateLimiter { clock.get() }
+        rateLimiter.setLimit(RateLimiter.RpcType.GET_DOCUMENTS, 10.0, 1)
+        rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS)
+
+        val waiter = Thread { rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS) }
+        waiter.start()
+        awaitWaiting(rateLimiter, 1)
+
+        // the bucket is updated in place, so the waiter is still counted and takes the next token
+        rateLimiter.setLimit(RateLimiter.RpcType.GET_DOCUMENTS, 1.0, 1)
+        assertEquals(1, rateLimiter.waitingCount("node", RateLimiter.RpcType.GET_DOCUMENTS))
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500))
+        Thread.sleep(50)
+        assertTrue(waiter.isAlive, "half a token at 1/s is not enough")
+
+        // removing the limit releases it
+        rateLimiter.removeLimit(RateLimiter.RpcType.GET_DOCUMENTS)
+        waiter.join(5000)
+        assertFalse(waiter.isAlive, "the waiter should be released")
+    }
+
+    /**
+     * Makes three BACKGROUND callers and then one INTERACTIVE caller wait on an empty bucket and
+     * returns the order in which they are admitted. The clock only moves once all four wait, so
+     * the result does not depend on thread scheduling.
+     */
+    private fun contendedOrder(acquire: (RateLimiter, RateLimiter.RequestPriority) -> Unit): List<RateLimiter.RequestPriority> {
+        val clock = AtomicLong()
+        val rateLimiter = RateLimiter { clock.get() }
+        rateLimiter.setLimit(RateLimiter.RpcType.GET_DOCUMENTS, 10.0, 1)
+        rateLimiter.acquire("node", RateLimiter.RpcType.GET_DOCUMENTS)
+
+        val order = Collections.synchronizedList(ArrayList<RateLimiter.RequestPriority>())
+        val threads = ArrayList<Thread>()
+        for (priority in listOf(RateLimiter.RequestPriority.BACKGROUND, RateLimiter.RequestPriority.BACKGROUND,
+                RateLimiter.RequestPriority.BACKGROUND, RateLimiter.RequestPriority.INTERACTIVE)) {
+            val thread = Thread {
+                acquire(rateLimiter, priority)
+                order.add(priority)
+            }
+            thread.start()
+            threads.add(thread)
+            awaitWaiting(rateLimiter, threads.size)
+        }
+
+        // one token at a time, until every caller is admitted
+        while (order.size < threads.size) {
+            val admitted = order.size
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100))
+            val deadline = System.currentTimeMillis() + 5000
+            while (order.size == admitted) {
+                assertTrue(System.currentTimeMillis() < deadline, "a caller should take the new token")
+                Thread.sleep(1)
+            }
+        }
+        threads.forEach { it.join() }
+        return order
+    }
+
+    private fun awaitWaiting(rateLimiter: RateLimiter, count: Int) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (rateLimiter.waitingCount("node", RateLimiter.RpcType.GET_DOCUMENTS) < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "$count callers should be waiting")
+            Thread.sleep(1)
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.dashevo.platform
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.util.Collections
+
+class StringDeduplicatorTest {
+
+    /** Encodes a map of strings as CBOR */
+    private fun encode(fields: Map<String, String>): ByteArray {
+        val out = ByteArrayOutputStream()
+        fun head(major: Int, length: Int) {
+            if (length < 24) {
+                out.write((major shl 5) or length)
+            } else {
+                out.write((major shl 5) or 24)
+                out.write(length)
+            }
+        }
+        fun string(value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            head(3, bytes.size)
+            out.write(bytes)
+        }
+        head(5, fields.size)
+        for ((key, value) in fields) {
+            string(key)
+            string(value)
+        }
+        return out.toByteArray()
+    }
+
+    @Test
+    fun canonicalInstanceTest() {
+        val deduplicator = StringDeduplicator()
+        val first = deduplicator.deduplicate(String(charArrayOf('d', 'a', 's', 'h')))
+        val second = deduplicator.deduplicate(String(charArrayOf('d', 'a', 's', 'h')))
+        assertSame(first, second)
+
+        val bytes = "xdashx".toByteArray()
+        assertSame(first, deduplicator.deduplicate(bytes, 1, 4))
+        assertEquals(2, deduplicator.hitCount)
+
+        val utf8 = "dásh".toByteArray()
+        assertSame(deduplicator.deduplicate(utf8, 0, utf8.size), deduplicator.deduplicate(utf8, 0, utf8.size))
+
+        val long = "a".repeat(65)
+        assertNotSame(deduplicator.deduplicate(long), deduplicator.deduplicate("a".repeat(65)))
+    }
+
+    @Test
+    fun nestedValuesTest() {
+        val deduplicator = StringDeduplicator()
+        val records = hashMapOf<String, Any?>("dashIdentity" to String(charArrayOf('i', 'd')))
+        val data = hashMapOf<String, Any?>("owner" to "id", "records" to records, "labels" to arrayListOf<Any?>(String(charArrayOf('i', 'd'))))
+        deduplicator.deduplicateValues(data)
+
+        assertSame(data["owner"], records["dashIdentity"])
+        assertSame(data["owner"], (data["labels"] as List<*>)[0])
+    }
+
+    @Test
+    fun dpnsDatasetTest() {
+        // DPNS domains: a few owners with many names, one parent domain, one contract
+        val contractId = "ForwNrvKy8jdyoCNTYBK4gcV6o15n79DmFQio2gGac5p"
+        val owners = (0 until 2000).map { "owner" + it.toString().padStart(39, '0') }
+        val serialized = (0 until 20000).map {
+            encode(linkedMapOf("\$type" to "domain", "\$contractId" to contractId, "\$userId" to owners[it % owners.size],
+                "label" to "name$it", "normalizedParentDomainName" to "dash"))
+        }
+        val projection = DocumentProjection("\$type", "\$contractId", "\$userId", "label", "normalizedParentDomainName")
+
+        val deduplicator = StringDeduplicator()
+        val documents = serialized.map { projection.read(it, deduplicator) }
+
+        assertSame(documents[0]["normalizedParentDomainName"], documents[1]["normalizedParentDomainName"])
+        assertSame(documents[0].userId, documents[owners.size].userId)
+        assertEquals("name7", documents[7]["label"])
+        // every value but the labels and the first id of each owner is a repeat, a few are lost to collisions
+        val repeats = 4 * 20000 - owners.size
+        assertTrue(deduplicator.hitCount > repeats * 0.95, deduplicator.toString())
+        // each repeat saves a String and its array, at least 48 bytes for the shortest value, "dash"
+        assertTrue(deduplicator.savedBytes >= deduplicator.hitCount * 48L, deduplicator.toString())
+    }
+
+    @Test
+    fun readOnlyValuesTest() {
+        val deduplicator = StringDeduplicator()
+        val nested = hashMapOf<String, Any?>("owner" to String(charArrayOf('i', 'd')))
+        val labels = Collections.unmodifiableList(listOf<Any?>(String(charArrayOf('i', 'd')), nested))
+        val data = hashMapOf<String, Any?>("owner" to "id", "labels" to labels,
+            "records" to Collections.unmodifiableMap(hashMapOf("dashIdentity" to String(charArrayOf('i', 'd')))))
+
+        deduplicator.deduplicateValues(data)
+
+        // the read-only list and map are left as they are, the mutable map inside is deduplicated
+        assertNotSame(data["owner"], labels[0])
+        assertNotSame(data["owner"], (data["records"] as Map<*, *>)["dashIdentity"])
+        assertSame(data["owner"], nested["owner"])
+    }
+}